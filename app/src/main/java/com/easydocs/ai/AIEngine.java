@@ -6,9 +6,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -65,24 +65,27 @@ public class AIEngine {
             }
 
             // Rank chunks by relevance with improved scoring
-            Map<String, Double> chunkScores = new HashMap<>();
+            QueryPlan plan = new QueryPlan(query, nlpProcessor);
+            TopKCollector<String> rankedChunks = new TopKCollector<>(relevantChunks.size());
+            Set<String> seenChunks = new HashSet<>();
             for (String chunk : relevantChunks) {
-                double score = calculateEnhancedSimilarity(query, chunk, nlpProcessor);
-                chunkScores.put(chunk, score);
+                if (!seenChunks.add(chunk)) continue; // Skip duplicate chunks
+                double score = calculateEnhancedSimilarity(plan, chunk, nlpProcessor);
+                rankedChunks.offer(chunk, score);
             }
 
             // Sort chunks by score
-            List<Map.Entry<String, Double>> sortedChunks = new ArrayList<>(chunkScores.entrySet());
-            sortedChunks.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+            double[] sortedScores = new double[rankedChunks.size()];
+            List<String> sortedChunks = rankedChunks.toSortedList(sortedScores);
 
             // Filter out low-relevance chunks with dynamic threshold
             List<String> filteredChunks = new ArrayList<>();
-            double maxScore = sortedChunks.isEmpty() ? 0 : sortedChunks.get(0).getValue();
+            double maxScore = sortedChunks.isEmpty() ? 0 : sortedScores[0];
             double threshold = Math.max(0.1, maxScore * 0.3); // Dynamic threshold
 
-            for (Map.Entry<String, Double> entry : sortedChunks) {
-                if (entry.getValue() >= threshold) {
-                    filteredChunks.add(entry.getKey());
+            for (int i = 0; i < sortedChunks.size(); i++) {
+                if (sortedScores[i] >= threshold) {
+                    filteredChunks.add(sortedChunks.get(i));
                 }
             }
 
@@ -94,12 +97,13 @@ public class AIEngine {
             return generateComprehensiveResponse(query, filteredChunks, nlpProcessor);
         }
 
-        private double calculateEnhancedSimilarity(String query, String chunk, SimpleNLP nlpProcessor) {
-            double baseScore = nlpProcessor.calculateSimilarity(query, chunk);
+        private double calculateEnhancedSimilarity(QueryPlan plan, String chunk, SimpleNLP nlpProcessor) {
+            SimpleNLP.TextFeatures chunkFeatures = nlpProcessor.indexText(chunk);
+            double baseScore = nlpProcessor.calculateSimilarity(plan, chunkFeatures);
 
             // Boost score for exact keyword matches
-            String[] queryWords = query.toLowerCase().split("\\s+");
-            String chunkLower = chunk.toLowerCase();
+            String[] queryWords = plan.getTokens();
+            String chunkLower = chunkFeatures.getLowerText();
             int exactMatches = 0;
 
             for (String word : queryWords) {
@@ -224,14 +228,18 @@ public class AIEngine {
             return analysis;
         }
 
+        // Words as the index's Tokenizer reads them: lowercase ASCII letters and digits only
         private List<String> extractKeyTerms(String query) {
             List<String> keyTerms = new ArrayList<>();
-            String[] words = query.split("\\s+");
-
-            for (String word : words) {
-                word = word.replaceAll("[^a-zA-Z0-9]", "").toLowerCase();
-                if (word.length() > 3 && !isStopWord(word)) {
-                    keyTerms.add(word);
+            Tokenizer tokenizer = new Tokenizer();
+            tokenizer.reset(query);
+
+            while (tokenizer.next()) {
+                if (tokenizer.length() > 3) {
+                    String word = tokenizer.word();
+                    if (!isStopWord(word)) {
+                        keyTerms.add(word);
+                    }
                 }
             }
 
@@ -85,6 +85,28 @@ public class ChatActivity extends AppCompatActivity {
 
         Log.d(TAG, "ChatActivity onCreate started");
 
+        // Bring back the documents indexed before the process was last killed
+        DocumentManager.getInstance().attachStorage(getApplicationContext(), new DocumentManager.StorageCallback() {
+            @Override
+            public void onRestored(List<DocumentItem> restored) {
+                if (restored.isEmpty()) return;
+                runOnUiThread(() -> {
+                    Fragment documentsFragment = getSupportFragmentManager()
+                            .findFragmentByTag("f1"); // ViewPager2 uses "f" + position as tag
+                    if (documentsFragment instanceof DocumentsFragment) {
+                        ((DocumentsFragment) documentsFragment).addRestoredDocuments(restored);
+                    }
+                });
+            }
+
+            @Override
+            public void onRestoreFailed(String error) {
+                runOnUiThread(() ->
+                        Toast.makeText(ChatActivity.this, error, Toast.LENGTH_LONG).show()
+                );
+            }
+        });
+
         initializeViews();
         setupTabLayout();
         setupActivityResultLauncher();
@@ -316,6 +338,18 @@ public class ChatActivity extends AppCompatActivity {
             documentItems.add(document);
             documentsAdapter.notifyItemInserted(documentItems.size() - 1);
         }
+
+        // Restored documents come first, as in DocumentManager; ones already listed are skipped
+        public void addRestoredDocuments(List<DocumentItem> restored) {
+            int position = 0;
+            for (DocumentItem document : restored) {
+                if (!documentItems.contains(document)) {
+                    documentItems.add(position, document);
+                    documentsAdapter.notifyItemInserted(position);
+                }
+                position++;
+            }
+        }
     }
 
     // ViewPager Adapter
@@ -390,6 +424,14 @@ public class ChatActivity extends AppCompatActivity {
                     });
                 }
 
+                @Override
+                public void onDuplicate(DocumentItem existing) {
+                    runOnUiThread(() ->
+                            Toast.makeText(ChatActivity.this,
+                                    "Already added as " + existing.getFileName(), Toast.LENGTH_SHORT).show()
+                    );
+                }
+
                 @Override
                 public void onError(String error) {
                     runOnUiThread(() ->
@@ -410,6 +452,13 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // The process may be killed once in the background, before a delayed save runs
+        DocumentManager.getInstance().flushStorage();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
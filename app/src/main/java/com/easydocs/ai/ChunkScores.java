@@ -0,0 +1,107 @@
+package com.easydocs.ai;
+
+import java.util.Arrays;
+
+/**
+ * Scores summed per chunk id in an open-addressing table, for ranking passes that read a few
+ * postings lists of a large index. Memory and iteration grow with the chunk ids added, not
+ * with the number of chunks in the index. Not thread-safe; one instance serves one query.
+ */
+final class ChunkScores {
+    private static final int EMPTY_SLOT = -1;
+
+    // Slot -> chunk id, EMPTY_SLOT for none; at most half full
+    private int[] chunkIds;
+    private double[] scores;
+    private int size;
+
+    // Sized so expectedIds distinct chunk ids fit without rehashing
+    ChunkScores(int expectedIds) {
+        int slots = Integer.highestOneBit(Math.max(8, 2 * expectedIds - 1)) << 1;
+        chunkIds = new int[slots];
+        scores = new double[slots];
+        Arrays.fill(chunkIds, EMPTY_SLOT);
+    }
+
+    void add(int chunkId, double score) {
+        int slot = find(chunkIds, chunkId);
+        if (chunkIds[slot] == EMPTY_SLOT) {
+            if (2 * (size + 1) > chunkIds.length) {
+                grow();
+                slot = find(chunkIds, chunkId);
+            }
+            chunkIds[slot] = chunkId;
+            size++;
+        }
+        scores[slot] += score;
+    }
+
+    // Summed score of chunkId, 0 if it was never added
+    double get(int chunkId) {
+        int slot = find(chunkIds, chunkId);
+        return chunkIds[slot] == EMPTY_SLOT ? 0.0 : scores[slot];
+    }
+
+    // Number of distinct chunk ids added
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Visits the added chunk ids in no particular order
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    final class Cursor {
+        private int slot = -1;
+
+        boolean next() {
+            while (++slot < chunkIds.length) {
+                if (chunkIds[slot] != EMPTY_SLOT) return true;
+            }
+            return false;
+        }
+
+        int chunkId() {
+            return chunkIds[slot];
+        }
+
+        double score() {
+            return scores[slot];
+        }
+    }
+
+    private void grow() {
+        int[] oldIds = chunkIds;
+        double[] oldScores = scores;
+        chunkIds = new int[oldIds.length * 2];
+        scores = new double[oldIds.length * 2];
+        Arrays.fill(chunkIds, EMPTY_SLOT);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == EMPTY_SLOT) continue;
+            int slot = find(chunkIds, oldIds[i]);
+            chunkIds[slot] = oldIds[i];
+            scores[slot] = oldScores[i];
+        }
+    }
+
+    // Slot holding chunkId, or the empty slot where it belongs
+    private static int find(int[] chunkIds, int chunkId) {
+        int mask = chunkIds.length - 1;
+        int slot = mix(chunkId) & mask;
+        while (chunkIds[slot] != EMPTY_SLOT && chunkIds[slot] != chunkId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Chunk ids are dense and sequential; spread them so runs don't cluster
+    private static int mix(int id) {
+        id *= 0x9e3779b9;
+        return id ^ (id >>> 16);
+    }
+}
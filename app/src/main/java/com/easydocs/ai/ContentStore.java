@@ -0,0 +1,227 @@
+package com.easydocs.ai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps document text Deflate-compressed in fixed-size blocks, so that holding a library
+ * costs a fraction of its String size. Reading a range only inflates the blocks covering it,
+ * and a small LRU cache of inflated blocks keeps documents that are hit repeatedly fast.
+ */
+public class ContentStore {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_CACHED_BLOCKS = 32;
+
+    private final int blockSize;
+    private final Map<Long, String> blockCache;
+    private final AtomicInteger nextTextId = new AtomicInteger();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public ContentStore() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * @param blockSize    chars per compressed block
+     * @param cachedBlocks inflated blocks kept in the LRU cache
+     */
+    public ContentStore(int blockSize, final int cachedBlocks) {
+        this.blockSize = Math.max(64, blockSize);
+        this.blockCache = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+    }
+
+    CompressedText compress(String text) {
+        int blockCount = Math.max(1, (text.length() + blockSize - 1) / blockSize);
+        int[] charStarts = new int[blockCount + 1];
+        int[] byteStarts = new int[blockCount + 1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 3 + 16);
+        Deflater deflater = new Deflater();
+        byte[] buffer = new byte[8192];
+
+        try {
+            int blocks = 0;
+            int start = 0;
+            while (start < text.length() || blocks == 0) {
+                int end = Math.min(text.length(), start + blockSize);
+                // Never split a surrogate pair across blocks
+                if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end++;
+                }
+
+                charStarts[blocks] = start;
+                byteStarts[blocks] = out.size();
+                deflater.reset();
+                deflater.setInput(text.substring(start, end).getBytes(StandardCharsets.UTF_8));
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                blocks++;
+                start = end;
+            }
+            charStarts[blocks] = text.length();
+            byteStarts[blocks] = out.size();
+
+            return new CompressedText(this, nextTextId.getAndIncrement(), out.toByteArray(),
+                    Arrays.copyOf(charStarts, blocks + 1), Arrays.copyOf(byteStarts, blocks + 1));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Reads back a text written by CompressedText.writeTo, as a new text of this store
+    CompressedText read(DataInputStream in) throws IOException {
+        int blocks = in.readInt();
+        if (blocks < 1) {
+            throw new IOException("Corrupt compressed text");
+        }
+        int[] charStarts = new int[blocks + 1];
+        int[] byteStarts = new int[blocks + 1];
+        for (int i = 0; i <= blocks; i++) {
+            charStarts[i] = in.readInt();
+            byteStarts[i] = in.readInt();
+        }
+        byte[] data = new byte[byteStarts[blocks]];
+        in.readFully(data);
+        return new CompressedText(this, nextTextId.getAndIncrement(), data, charStarts, byteStarts);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public void clearCache() {
+        synchronized (blockCache) {
+            blockCache.clear();
+        }
+    }
+
+    private String inflateBlock(CompressedText text, int block) {
+        long key = ((long) text.id << 32) | block;
+        synchronized (blockCache) {
+            String cached = blockCache.get(key);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        cacheMisses.incrementAndGet();
+
+        // Inflated outside the lock; two threads missing on one block both inflate it
+        int from = text.byteStarts[block];
+        int to = text.byteStarts[block + 1];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(text.data, from, to - from);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(blockSize + blockSize / 2);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated block");
+                }
+                out.write(buffer, 0, count);
+            }
+            String inflated = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+            synchronized (blockCache) {
+                blockCache.put(key, inflated);
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt content block " + block, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * One document's text as compressed blocks plus the table of where each block starts,
+     * in chars of the original text and in bytes of the compressed data.
+     */
+    static final class CompressedText {
+        private final ContentStore store;
+        private final int id;
+        private final byte[] data;
+        private final int[] charStarts;
+        private final int[] byteStarts;
+
+        private CompressedText(ContentStore store, int id, byte[] data, int[] charStarts, int[] byteStarts) {
+            this.store = store;
+            this.id = id;
+            this.data = data;
+            this.charStarts = charStarts;
+            this.byteStarts = byteStarts;
+        }
+
+        int length() {
+            return charStarts[charStarts.length - 1];
+        }
+
+        ContentStore getStore() {
+            return store;
+        }
+
+        // Block tables followed by the compressed data, as is
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(charStarts.length - 1);
+            for (int i = 0; i < charStarts.length; i++) {
+                out.writeInt(charStarts[i]);
+                out.writeInt(byteStarts[i]);
+            }
+            out.write(data);
+        }
+
+        // Compressed data and block tables; inflated blocks in the cache are not included
+        long estimateHeapBytes() {
+            return 16 + data.length + 32 + 8L * charStarts.length;
+        }
+
+        // Inflates only the blocks overlapping [start, end)
+        String substring(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length());
+            }
+            if (start == end) return "";
+
+            int block = findBlock(start);
+            StringBuilder result = new StringBuilder(end - start);
+            while (start < end) {
+                String inflated = store.inflateBlock(this, block);
+                int blockStart = charStarts[block];
+                int blockEnd = charStarts[block + 1];
+                int to = Math.min(end, blockEnd);
+                result.append(inflated, start - blockStart, to - blockStart);
+                start = to;
+                block++;
+            }
+            return result.toString();
+        }
+
+        private int findBlock(int offset) {
+            int index = Arrays.binarySearch(charStarts, 0, charStarts.length - 1, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.easydocs.ai;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable corpus statistics of one index snapshot: the number of retrievable chunks, their
+ * keyword count and, per term id of the index's dictionary, how many of them contain the keyword. A new
+ * version is derived for every added or removed document by adjusting the counts of the
+ * chunks involved, so TF-IDF and BM25 read real document frequencies without any pass over
+ * the index. Aliases of near-duplicate chunks are not counted, just as they have no postings.
+ */
+final class CorpusStats {
+    static final CorpusStats EMPTY = new CorpusStats(new int[0], 0, 0);
+
+    // Term id -> live chunks containing the keyword; ids past the end occur in none
+    private final int[] documentFrequencies;
+    private final int chunkCount;
+    private final long totalTermCount;
+    // IDF by term id, filled on first use; racing threads compute the same array
+    private volatile double[] idfs;
+
+    private CorpusStats(int[] documentFrequencies, int chunkCount, long totalTermCount) {
+        this.documentFrequencies = documentFrequencies;
+        this.chunkCount = chunkCount;
+        this.totalTermCount = totalTermCount;
+    }
+
+    /**
+     * Statistics of an index read back from a file, where every term's postings list holds
+     * exactly the live chunks containing it. Chunk features share the postings' term ids.
+     */
+    static CorpusStats fromPostings(PostingsList[] postings, int chunkCount, long totalTermCount) {
+        int[] frequencies = new int[postings.length];
+        for (int termId = 0; termId < postings.length; termId++) {
+            if (postings[termId] != null) {
+                frequencies[termId] = postings[termId].size();
+            }
+        }
+        return new CorpusStats(frequencies, chunkCount, totalTermCount);
+    }
+
+    /**
+     * These statistics with the features of added chunks counted and those of removed chunks
+     * taken out. Either list may be empty; the counts array is copied once.
+     */
+    CorpusStats with(List<SimpleNLP.TextFeatures> added, List<SimpleNLP.TextFeatures> removed) {
+        if (added.isEmpty() && removed.isEmpty()) return this;
+
+        int maxId = documentFrequencies.length - 1;
+        for (SimpleNLP.TextFeatures features : added) {
+            int[] ids = features.getKeywordIds();
+            if (ids.length > 0) maxId = Math.max(maxId, ids[ids.length - 1]);
+        }
+
+        int[] frequencies = Arrays.copyOf(documentFrequencies, maxId + 1);
+        int newChunkCount = chunkCount;
+        long newTermCount = totalTermCount;
+        for (SimpleNLP.TextFeatures features : added) {
+            for (int id : features.getKeywordIds()) {
+                frequencies[id]++;
+            }
+            newChunkCount++;
+            newTermCount += features.getKeywordCount();
+        }
+        for (SimpleNLP.TextFeatures features : removed) {
+            for (int id : features.getKeywordIds()) {
+                if (id < frequencies.length && frequencies[id] > 0) frequencies[id]--;
+            }
+            newChunkCount--;
+            newTermCount -= features.getKeywordCount();
+        }
+        return new CorpusStats(frequencies, Math.max(0, newChunkCount), Math.max(0, newTermCount));
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    long getTotalTermCount() {
+        return totalTermCount;
+    }
+
+    // Mean keyword count of a chunk, 0 for an empty corpus
+    double getAverageLength() {
+        return chunkCount == 0 ? 0.0 : (double) totalTermCount / chunkCount;
+    }
+
+    int documentFrequency(int termId) {
+        return termId >= 0 && termId < documentFrequencies.length ? documentFrequencies[termId] : 0;
+    }
+
+    /**
+     * BM25's smoothed inverse document frequency. Always positive, and the same for every
+     * term of an empty corpus, where TF-IDF cosine then reduces to plain term frequencies.
+     */
+    double idf(int termId) {
+        double[] cached = idfs;
+        if (cached == null) {
+            cached = new double[documentFrequencies.length];
+            for (int id = 0; id < cached.length; id++) {
+                cached[id] = idf(chunkCount, documentFrequencies[id]);
+            }
+            idfs = cached;
+        }
+        return termId >= 0 && termId < cached.length ? cached[termId] : idf(chunkCount, 0);
+    }
+
+    private static double idf(int chunkCount, int documentFrequency) {
+        return Math.log(1.0 + (Math.max(0, chunkCount - documentFrequency) + 0.5) / (documentFrequency + 0.5));
+    }
+}
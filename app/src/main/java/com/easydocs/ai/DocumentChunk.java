@@ -0,0 +1,241 @@
+package com.easydocs.ai;
+
+import java.util.Set;
+
+/**
+ * A retrievable piece of a document together with its cached, query-independent features.
+ * The chunk holds no text of its own, only a [start, end) range of its document's shared
+ * DocumentText, so overlapping chunks don't duplicate the overlap. Chunks restored from the
+ * persisted index analyze their text on first use, so loading does not touch every chunk.
+ * Scoring reads getTermFeatures, a compact id record that stays on the heap once computed, so
+ * chunks whose features are not cached, or whose text is spilled or mapped, are scored
+ * without decoding their text again.
+ */
+public class DocumentChunk {
+    private String documentName;
+    private DocumentText text;
+    private int start;
+    private int end;
+    private String fileType;
+    private long timestamp;
+    private int id;
+    private volatile SimpleNLP.TextFeatures features;
+    // Compact form of the features, kept while the full ones are not cached
+    private volatile SimpleNLP.TextFeatures termFeatures;
+    private double keywordBoost;
+    // Question cue words the text contains, as VectorStore flags
+    private int questionCues;
+    private int termCount;
+    // SimHash of the keywords for near-duplicate detection, NearDuplicateIndex.NO_SIGNATURE if none
+    private long signature;
+    // Computes features that are not cached; null only before setFeatures
+    private SimpleNLP analyzer;
+    private boolean cacheFeatures = true;
+
+    public DocumentChunk(String documentName, String content, String fileType) {
+        this(documentName, DocumentText.of(content), 0, content.length(), fileType);
+    }
+
+    DocumentChunk(String documentName, DocumentText text, int start, int end, String fileType) {
+        this.documentName = documentName;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+        this.fileType = fileType;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Chunk restored from an index file, with the term count, keyword boost and question cues
+     * stored there. Features are computed with analyzer when needed, and kept only if
+     * cacheFeatures is set; their compact form is always kept.
+     */
+    static DocumentChunk restored(String documentName, String fileType, long timestamp, DocumentText text,
+                                  int start, int end, int termCount, double keywordBoost, int questionCues,
+                                  long signature, SimpleNLP analyzer, boolean cacheFeatures) {
+        DocumentChunk chunk = new DocumentChunk(documentName, text, start, end, fileType);
+        chunk.timestamp = timestamp;
+        chunk.termCount = termCount;
+        chunk.keywordBoost = keywordBoost;
+        chunk.questionCues = questionCues;
+        chunk.signature = signature;
+        chunk.analyzer = analyzer;
+        chunk.cacheFeatures = cacheFeatures;
+        return chunk;
+    }
+
+    public String getDocumentName() {
+        return documentName;
+    }
+
+    // Materialized from the document text on every call; callers that need it repeatedly keep it
+    public String getContent() {
+        return text.substring(start, end);
+    }
+
+    DocumentText getText() {
+        return text;
+    }
+
+    // Moves the chunk to an equivalent text with the same offsets, before it is published
+    void setText(DocumentText text) {
+        this.text = text;
+    }
+
+    // Range of the chunk in getText(), in that text's units
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // Position of the chunk in the store, also used as a deterministic tie-break
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    // Shares the text and cached features; only the id is independent
+    DocumentChunk copy() {
+        DocumentChunk copy = new DocumentChunk(documentName, text, start, end, fileType);
+        copy.timestamp = timestamp;
+        copy.features = features;
+        copy.termFeatures = termFeatures;
+        copy.keywordBoost = keywordBoost;
+        copy.questionCues = questionCues;
+        copy.termCount = termCount;
+        copy.signature = signature;
+        copy.analyzer = analyzer;
+        copy.cacheFeatures = cacheFeatures;
+        return copy;
+    }
+
+    public SimpleNLP.TextFeatures getFeatures() {
+        SimpleNLP.TextFeatures current = features;
+        if (current == null) {
+            current = analyzer.indexText(getContent());
+            if (cacheFeatures && !text.isFeaturesEvicted()) {
+                // Racing threads compute identical features, so a lost update is harmless
+                features = current;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The features to score the chunk with: the cached ones, else their compact form, which
+     * is computed once from the text and then kept. Compact features only hold ids, so they
+     * are compared with features of the same analyzer, as a QueryPlan of the store's is.
+     */
+    SimpleNLP.TextFeatures getTermFeatures() {
+        SimpleNLP.TextFeatures current = features;
+        if (current != null) return current;
+        SimpleNLP.TextFeatures compact = termFeatures;
+        if (compact != null) return compact;
+
+        current = getFeatures();
+        if (features == null) {
+            termFeatures = current.compact();
+        }
+        return current;
+    }
+
+    // Same as getTermFeatures without keeping anything, e.g. for a chunk that is being removed
+    SimpleNLP.TextFeatures peekOrComputeFeatures() {
+        SimpleNLP.TextFeatures current = features;
+        if (current != null) return current;
+        SimpleNLP.TextFeatures compact = termFeatures;
+        return compact != null ? compact : analyzer.indexText(getContent());
+    }
+
+    // Drops cached features down to their compact form, which scoring keeps using
+    void evictFeatures() {
+        SimpleNLP.TextFeatures current = features;
+        if (analyzer != null && current != null) {
+            termFeatures = current.compact();
+            features = null;
+        }
+    }
+
+    // Heap held by cached features or their compact form, 0 when neither is kept
+    long estimateFeatureBytes() {
+        SimpleNLP.TextFeatures current = features;
+        if (current == null) current = termFeatures;
+        return current != null ? current.estimateHeapBytes() : 0;
+    }
+
+    // Share of estimateFeatureBytes that evictFeatures frees
+    long estimateEvictableFeatureBytes() {
+        SimpleNLP.TextFeatures current = features;
+        return current != null && analyzer != null ? current.estimateHeapBytes() - current.estimateIdBytes() : 0;
+    }
+
+    public String getLowerContent() {
+        return getFeatures().getLowerText();
+    }
+
+    public String[] getTokens() {
+        return getFeatures().getTokens();
+    }
+
+    public Set<String> getKeywords() {
+        return getFeatures().getKeywords();
+    }
+
+    public int getTermFrequency(String term) {
+        Integer tf = getFeatures().getTermFrequencies().get(term);
+        return tf != null ? tf : 0;
+    }
+
+    // Number of keyword occurrences; known without analyzing restored chunks
+    public int getTermCount() {
+        return termCount;
+    }
+
+    // Query-independent boost for important keywords in the chunk
+    public double getKeywordBoost() {
+        return keywordBoost;
+    }
+
+    // Known without the text, like the keyword boost
+    int getQuestionCues() {
+        return questionCues;
+    }
+
+    void setFeatures(SimpleNLP analyzer, SimpleNLP.TextFeatures features, double keywordBoost, int questionCues) {
+        this.analyzer = analyzer;
+        this.features = features;
+        this.termFeatures = null;
+        this.keywordBoost = keywordBoost;
+        this.questionCues = questionCues;
+        this.termCount = features.getKeywordCount();
+        this.signature = NearDuplicateIndex.signature(features);
+    }
+
+    long getSignature() {
+        return signature;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentChunk{" +
+                "documentName='" + documentName + '\'' +
+                ", fileType='" + fileType + '\'' +
+                ", contentLength=" + (end - start) +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
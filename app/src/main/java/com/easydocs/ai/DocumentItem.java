@@ -4,6 +4,7 @@ import android.net.Uri;
 import java.io.Serializable;
 
 public class DocumentItem implements Serializable {
+    private static final long serialVersionUID = 1L;
     private String name;
     private String path;
     private String mimeType;
@@ -11,6 +12,7 @@ public class DocumentItem implements Serializable {
     private long dateAdded;
     private Uri uri;
     private String content; // For processed text content
+    private String contentHash; // Hex SHA-256 of the file bytes, null if not known
 
     public DocumentItem(String name, Uri uri) {
         this.name = name;
@@ -60,6 +62,10 @@ public class DocumentItem implements Serializable {
         return content;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
     // Setters
     public void setName(String name) {
         this.name = name;
@@ -81,10 +87,18 @@ public class DocumentItem implements Serializable {
         this.uri = uri;
     }
 
+    public void setDateAdded(long dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
     public void setContent(String content) {
         this.content = content;
     }
 
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     // Helper methods
     public String getFormattedSize() {
         if (size <= 0) return "Unknown size";
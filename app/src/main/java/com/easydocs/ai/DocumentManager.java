@@ -1,17 +1,54 @@
 package com.easydocs.ai;
 
+import android.content.Context;
 import android.util.Log;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DocumentManager {
     private static final String TAG = "DocumentManager";
+    private static final String INDEX_FILE_NAME = "document_index.bin";
+    private static final String MANIFEST_FILE_NAME = "documents.bin";
+    private static final String SPILL_DIRECTORY_NAME = "index_spill";
+    private static final String EXTRACTION_CACHE_DIRECTORY_NAME = "extracted_text";
+    private static final long EXTRACTION_CACHE_BYTES = 64L * 1024 * 1024;
+    // Share of the app's maximum heap the index may hold before evicting cold documents
+    private static final int MEMORY_BUDGET_DIVISOR = 4;
     private static DocumentManager instance;
     private List<DocumentItem> documents;
+    // Content-addressed view of documents, so a re-uploaded file resolves without extraction
+    private final Map<String, DocumentItem> documentsByContentHash = new ConcurrentHashMap<>();
     private VectorStore vectorStore;
+    private volatile ExtractionCache extractionCache;
+    private volatile boolean storageAttached;
+    // Reading the index file can take seconds for a large library, so it never runs on the caller
+    private final ExecutorService storageExecutor = Executors.newSingleThreadExecutor();
+    // Released once restored documents are in the list, so new ones are added after them
+    private final CountDownLatch storageRestored = new CountDownLatch(1);
+    // Lists the library independently of the index format, for rebuilding an unreadable index
+    private volatile File manifestFile;
+    private final AtomicBoolean manifestSavePending = new AtomicBoolean();
+
+    public interface StorageCallback {
+        // Called on a background thread with the documents of the previous session, possibly none
+        void onRestored(List<DocumentItem> restored);
+        // Called on a background thread, after onRestored, when saved documents have to be re-added
+        void onRestoreFailed(String error);
+    }
 
     private DocumentManager() {
-        documents = new ArrayList<>();
+        // Documents are added from processor threads while the UI and queries read the list
+        documents = new CopyOnWriteArrayList<>();
         vectorStore = new VectorStore();
         Log.d(TAG, "DocumentManager initialized");
     }
@@ -23,26 +60,236 @@ public class DocumentManager {
         return instance;
     }
 
+    /**
+     * Restores the documents indexed in a previous session from app storage and keeps the
+     * index file up to date from then on. Also caps the index at a share of the heap, evicting
+     * text of rarely queried documents to the cache directory, where extracted text is also
+     * cached for re-imports and rebuilds. Only the first call has any effect.
+     * Returns at once; the index is read on a background thread, which reports to callback.
+     */
+    public synchronized void attachStorage(Context context, StorageCallback callback) {
+        if (storageAttached) return;
+        storageAttached = true;
+
+        vectorStore.setSpillDirectory(new File(context.getCacheDir(), SPILL_DIRECTORY_NAME));
+        vectorStore.setMemoryBudget(Runtime.getRuntime().maxMemory() / MEMORY_BUDGET_DIVISOR);
+        extractionCache = new ExtractionCache(new File(context.getCacheDir(), EXTRACTION_CACHE_DIRECTORY_NAME),
+                EXTRACTION_CACHE_BYTES, DocumentProcessor.EXTRACTOR_VERSION);
+        vectorStore.setExtractionCache(extractionCache);
+
+        File indexFile = new File(context.getFilesDir(), INDEX_FILE_NAME);
+        manifestFile = new File(context.getFilesDir(), MANIFEST_FILE_NAME);
+        storageExecutor.execute(() -> restoreDocuments(context, indexFile, callback));
+    }
+
+    /**
+     * Loads the index file, or if it cannot be read, rebuilds the index from the documents in
+     * the manifest whose text is still cached or can be extracted again from their URI. The
+     * manifest is saved at once while index saves are delayed, so a loaded index is reconciled
+     * with it: documents added or removed shortly before the process died are re-indexed or
+     * dropped.
+     */
+    private void restoreDocuments(Context context, File indexFile, StorageCallback callback) {
+        List<DocumentItem> restored;
+        List<String> lost = new ArrayList<>();
+        String error = null;
+        try {
+            restored = vectorStore.attachIndexFile(indexFile);
+            Log.d(TAG, "Restored " + restored.size() + " documents from " + indexFile.getName());
+            restored = reconcileWithManifest(context, restored, lost);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + indexFile.getName() + ", rebuilding it", e);
+            restored = rebuildFromManifest(context, lost);
+            if (restored == null) {
+                restored = new ArrayList<>();
+                error = "Saved documents could not be loaded, please add them again";
+            }
+        }
+        if (error == null && !lost.isEmpty()) {
+            error = lost.size() + " saved documents could not be restored, please add them again: "
+                    + String.join(", ", lost);
+        }
+
+        documents.addAll(0, restored);
+        for (DocumentItem document : restored) {
+            registerContentHash(document);
+        }
+        storageRestored.countDown();
+        // Also writes the manifest of an index saved before there was one
+        scheduleManifestSave();
+
+        callback.onRestored(restored);
+        if (error != null) {
+            callback.onRestoreFailed(error);
+        }
+    }
+
+    /**
+     * The rebuilt documents, adding the names of those without readable text to lost.
+     * Null if the manifest is missing or unreadable, so the documents are not known.
+     */
+    private List<DocumentItem> rebuildFromManifest(Context context, List<String> lost) {
+        List<DocumentItem> saved;
+        try {
+            saved = DocumentManifest.read(manifestFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + manifestFile.getName(), e);
+            return null;
+        }
+
+        DocumentProcessor processor = new DocumentProcessor(context);
+        List<DocumentItem> readable = new ArrayList<>();
+        for (DocumentItem document : saved) {
+            if (recoverContent(processor, document)) {
+                readable.add(document);
+            } else {
+                lost.add(document.getName());
+            }
+        }
+        processor.cleanup();
+
+        vectorStore.rebuild(readable);
+        for (DocumentItem document : readable) {
+            document.setContent(null);
+        }
+        Log.i(TAG, "Rebuilt index from " + readable.size() + " of " + saved.size() + " saved documents");
+        return readable;
+    }
+
+    /**
+     * The documents of the manifest, in its order: those in the loaded index as restored, the
+     * rest re-indexed from their cached or re-extracted text, adding the names of those without
+     * readable text to lost. Restored documents the manifest no longer lists are removed from
+     * the index. Without a readable manifest, e.g. one from before manifests, restored is kept.
+     */
+    private List<DocumentItem> reconcileWithManifest(Context context, List<DocumentItem> restored, List<String> lost) {
+        List<DocumentItem> saved;
+        try {
+            saved = DocumentManifest.read(manifestFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + manifestFile.getName() + ", keeping the index as loaded", e);
+            return restored;
+        }
+
+        Map<String, DocumentItem> indexed = new HashMap<>();
+        for (DocumentItem document : restored) {
+            indexed.put(DocumentManifest.key(document), document);
+        }
+
+        List<DocumentItem> reconciled = new ArrayList<>(saved.size());
+        List<DocumentItem> missing = new ArrayList<>();
+        DocumentProcessor processor = null;
+        for (DocumentItem document : saved) {
+            DocumentItem restoredDocument = indexed.remove(DocumentManifest.key(document));
+            if (restoredDocument != null) {
+                reconciled.add(restoredDocument);
+                continue;
+            }
+
+            // Added after the index was last saved, or without any chunks to index
+            if (processor == null) {
+                processor = new DocumentProcessor(context);
+            }
+            if (recoverContent(processor, document)) {
+                missing.add(document);
+                reconciled.add(document);
+            } else {
+                lost.add(document.getName());
+            }
+        }
+        if (processor != null) {
+            processor.cleanup();
+        }
+        if (!missing.isEmpty()) {
+            vectorStore.addDocuments(missing);
+            for (DocumentItem document : missing) {
+                document.setContent(null);
+            }
+        }
+
+        // Removed after the index was last saved
+        for (DocumentItem document : indexed.values()) {
+            vectorStore.removeDocument(document);
+        }
+        if (!missing.isEmpty() || !indexed.isEmpty()) {
+            Log.i(TAG, "Reconciled index with " + manifestFile.getName() + ": re-indexed " + missing.size()
+                    + ", dropped " + indexed.size() + " documents");
+        }
+        return reconciled;
+    }
+
+    // Sets the document's text from the extraction cache or its URI; false if neither has any
+    private boolean recoverContent(DocumentProcessor processor, DocumentItem document) {
+        String contentHash = document.getContentHash();
+        String content = contentHash != null ? extractionCache.get(contentHash) : null;
+        if (content == null) {
+            content = processor.extractContent(document);
+            if (contentHash != null && content != null && !content.trim().isEmpty()) {
+                extractionCache.put(contentHash, content);
+            }
+        }
+
+        if (content == null || content.trim().isEmpty()) return false;
+        document.setContent(content);
+        return true;
+    }
+
+    // Coalesced like index saves, but written at once since the manifest is small
+    private void scheduleManifestSave() {
+        if (manifestFile == null || !manifestSavePending.compareAndSet(false, true)) return;
+
+        storageExecutor.execute(() -> {
+            manifestSavePending.set(false);
+            try {
+                DocumentManifest.write(new ArrayList<>(documents), manifestFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save " + manifestFile.getName(), e);
+            }
+        });
+    }
+
+    // Blocks adding documents until the previous session's documents are back in the list
+    private void awaitRestoredDocuments() {
+        if (!storageAttached) return;
+        try {
+            storageRestored.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes pending index changes now, e.g. before the app goes to the background
+    public void flushStorage() {
+        vectorStore.flushIndexFile();
+    }
+
     public List<DocumentItem> getDocuments() {
         return new ArrayList<>(documents); // Return copy to prevent external modification
     }
 
     public void addDocument(DocumentItem document) {
         if (document != null) {
+            awaitRestoredDocuments();
             documents.add(document);
+            registerContentHash(document);
             // Add document to vector store for search functionality
             vectorStore.addDocument(document);
+            // The vector store keeps the extracted text compressed; no need for a second full copy
+            document.setContent(null);
+            scheduleManifestSave();
             Log.d(TAG, "Document added: " + document.getName() + ". Total documents: " + documents.size());
         } else {
             Log.w(TAG, "Attempted to add null document");
         }
     }
 
-    public void removeDocument(int position) {
+    public synchronized void removeDocument(int position) {
         if (position >= 0 && position < documents.size()) {
             DocumentItem removed = documents.remove(position);
-            // Rebuild vector store after removal
-            rebuildVectorStore();
+            unregisterContentHash(removed);
+            // Only the removed document's chunks are dropped; the rest stay indexed
+            vectorStore.removeDocument(removed);
+            scheduleManifestSave();
             Log.d(TAG, "Document removed: " + removed.getName() + ". Remaining documents: " + documents.size());
         } else {
             Log.w(TAG, "Invalid position for document removal: " + position);
@@ -77,10 +324,57 @@ public class DocumentManager {
     public void clearAllDocuments() {
         int count = documents.size();
         documents.clear();
+        documentsByContentHash.clear();
         vectorStore.clearChunks();
+        scheduleManifestSave();
         Log.d(TAG, "All documents cleared. Removed " + count + " documents");
     }
 
+    /**
+     * The document whose file had the given SHA-256, as computed by DocumentProcessor,
+     * or null if no such document is in the library.
+     */
+    public DocumentItem findDocumentByContentHash(String contentHash) {
+        if (contentHash == null) return null;
+        return documentsByContentHash.get(contentHash);
+    }
+
+    // The first document with some content keeps the entry
+    private void registerContentHash(DocumentItem document) {
+        if (document.getContentHash() != null) {
+            documentsByContentHash.putIfAbsent(document.getContentHash(), document);
+        }
+    }
+
+    // Hands the entry to another document with the same content, if one was added regardless
+    private void unregisterContentHash(DocumentItem document) {
+        String contentHash = document.getContentHash();
+        if (contentHash == null || !documentsByContentHash.remove(contentHash, document)) return;
+
+        for (DocumentItem other : documents) {
+            if (contentHash.equals(other.getContentHash())) {
+                registerContentHash(other);
+                return;
+            }
+        }
+    }
+
+    // Null until storage is attached
+    ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+
+    // Extraction cache lookups since storage was attached that found cached text
+    public long getExtractionCacheHits() {
+        ExtractionCache cache = extractionCache;
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    public long getExtractionCacheMisses() {
+        ExtractionCache cache = extractionCache;
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
     public DocumentItem findDocumentByName(String name) {
         if (name == null) return null;
 
@@ -91,12 +385,4 @@ public class DocumentManager {
         }
         return null;
     }
-
-    // Helper method to rebuild vector store after document removal
-    private void rebuildVectorStore() {
-        vectorStore.clearChunks();
-        for (DocumentItem document : documents) {
-            vectorStore.addDocument(document);
-        }
-    }
 }
\ No newline at end of file
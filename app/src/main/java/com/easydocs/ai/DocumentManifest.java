@@ -0,0 +1,97 @@
+package com.easydocs.ai;
+
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small file listing the library's documents beside the index file. Unlike IndexFile its
+ * layout does not follow index format changes, so when the index cannot be read the documents
+ * are still known and can be rebuilt from their cached or re-extracted text.
+ *
+ * Layout: magic, version, document count, then per document its name, path, MIME type, size,
+ * date added, URI and content hash.
+ */
+final class DocumentManifest {
+    private static final int MAGIC = 0x45444d46; // "EDMF"
+    private static final int VERSION = 1;
+
+    private DocumentManifest() {
+    }
+
+    // Written to a temporary file and renamed over file, like the index
+    static void write(List<DocumentItem> documents, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(documents.size());
+            for (DocumentItem document : documents) {
+                writeString(out, document.getName());
+                writeString(out, document.getPath());
+                writeString(out, document.getMimeType());
+                out.writeLong(document.getSize());
+                out.writeLong(document.getDateAdded());
+                writeString(out, document.getUri() != null ? document.getUri().toString() : null);
+                writeString(out, document.getContentHash());
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // The documents in the order they were added; throws if there is no readable manifest
+    static List<DocumentItem> read(File file) throws IOException {
+        List<DocumentItem> documents = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a document manifest: " + file);
+            }
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                DocumentItem document = new DocumentItem(readString(in), readString(in), readString(in), in.readLong());
+                document.setDateAdded(in.readLong());
+                String uri = readString(in);
+                if (uri != null) {
+                    document.setUri(Uri.parse(uri));
+                }
+                document.setContentHash(readString(in));
+                documents.add(document);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated document manifest " + file, e);
+        }
+        return documents;
+    }
+
+    /**
+     * Identifies a document across the manifest and the index file, which both store its name,
+     * date added and content hash, so restored documents can be matched with listed ones.
+     */
+    static String key(DocumentItem document) {
+        return document.getName() + '\u0000' + document.getDateAdded() + '\u0000' + document.getContentHash();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
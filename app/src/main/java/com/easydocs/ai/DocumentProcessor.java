@@ -17,18 +17,40 @@ import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
 
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class DocumentProcessor {
     private static final String TAG = "DocumentProcessor";
+    // Bump when extraction output changes, so text cached by older versions is not reused
+    static final int EXTRACTOR_VERSION = 1;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final String UPLOAD_DIRECTORY_NAME = "uploads";
+    // Shared by all processors, so a file picked twice is extracted once
+    private static final ExtractionClaims claims =
+            new ExtractionClaims(contentHash -> DocumentManager.getInstance().findDocumentByContentHash(contentHash));
     private Context context;
     private ExecutorService executor;
 
+    /**
+     * onSuccess is expected to add the document to DocumentManager before returning, which
+     * makes its content hash known to later uploads of the same file. Files without
+     * extractable text are reported to onError instead.
+     */
     public interface ProcessingCallback {
         void onSuccess(DocumentItem document);
+        // The file's bytes match a document already in the library, which is passed instead
+        void onDuplicate(DocumentItem existing);
         void onError(String error);
         void onProgress(int progress);
     }
@@ -45,30 +67,25 @@ public class DocumentProcessor {
 
                 // Get document info
                 DocumentInfo info = getDocumentInfo(uri);
-                callback.onProgress(30);
-
-                // Create DocumentItem
-                DocumentItem document = new DocumentItem(info.name, uri);
-                document.setMimeType(info.mimeType);
-                document.setSize(info.size);
-
-                callback.onProgress(50);
-
-                if (isTextFile(info.mimeType)) {
-                    String content = readTextContent(uri);
-                    document.setContent(content);
-                } else if (info.mimeType.equals("application/pdf")) {
-                    String content = extractPdfContent(uri);  // <- Implement this
-                    document.setContent(content);
-                } else if (info.mimeType.contains("word")) {
-                    String content = extractDocxContent(uri); // <- Implement this
-                    document.setContent(content);
+                callback.onProgress(20);
+
+                // The file is read from its provider once, hashed on the way into a local copy
+                File upload = new File(new File(context.getCacheDir(), UPLOAD_DIRECTORY_NAME),
+                        Thread.currentThread().getId() + ".upload");
+                String contentHash = copyAndHash(uri, info, upload);
+                try {
+                    // Identical bytes were extracted before, possibly under another name
+                    DocumentItem existing = claims.extractOnce(contentHash,
+                            () -> extractDocument(uri, info, upload, contentHash, callback), callback);
+                    if (existing != null) {
+                        Log.d(TAG, info.name + " has the same content as " + existing.getName() + ", skipping extraction");
+                        callback.onProgress(100);
+                        callback.onDuplicate(existing);
+                    }
+                } finally {
+                    upload.delete();
                 }
 
-
-                callback.onProgress(100);
-                callback.onSuccess(document);
-
             } catch (Exception e) {
                 Log.e(TAG, "Error processing document: " + e.getMessage(), e);
                 callback.onError(e.getMessage());
@@ -76,9 +93,76 @@ public class DocumentProcessor {
         });
     }
 
-    private String extractDocxContent(Uri uri) {
-        StringBuilder content = new StringBuilder();
+    // The upload as a new document, with empty content if no text could be extracted
+    private DocumentItem extractDocument(Uri uri, DocumentInfo info, File upload, String contentHash,
+                                         ProcessingCallback callback) {
+        DocumentItem document = new DocumentItem(info.name, uri);
+        document.setMimeType(info.mimeType);
+        document.setSize(info.size);
+        document.setContentHash(contentHash);
+
+        callback.onProgress(50);
+
+        ExtractionCache cache = contentHash != null ? DocumentManager.getInstance().getExtractionCache() : null;
+        String content = cache != null ? cache.get(contentHash) : null;
+        if (content == null) {
+            content = contentHash != null
+                    ? extractContent(upload, info.mimeType)
+                    : extractContent(uri, info.mimeType);
+            // Failed extractions are not cached, so the next upload of the file tries again
+            if (cache != null && content != null && !content.trim().isEmpty()) {
+                cache.put(contentHash, content);
+            }
+        } else {
+            Log.d(TAG, "Extracted text of " + info.name + " found in cache");
+        }
+        document.setContent(content);
+        return document;
+    }
+
+    /**
+     * Re-extracts a library document from its URI on the calling thread, for rebuilding an
+     * index that could not be read. Null if it has no URI or the file is no longer readable.
+     */
+    String extractContent(DocumentItem document) {
+        if (document.getUri() == null || document.getMimeType() == null) return null;
+        return extractContent(document.getUri(), document.getMimeType());
+    }
+
+    // Null for types without an extractor or a file that can't be opened
+    private String extractContent(Uri uri, String mimeType) {
         try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
+            return inputStream != null ? extractContent(inputStream, mimeType) : null;
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening document: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // Same for the local copy made while hashing
+    private String extractContent(File file, String mimeType) {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return extractContent(inputStream, mimeType);
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening document: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private String extractContent(InputStream inputStream, String mimeType) {
+        if (isTextFile(mimeType)) {
+            return readTextContent(inputStream);
+        } else if (mimeType.equals("application/pdf")) {
+            return extractPdfContent(inputStream);
+        } else if (mimeType.contains("word")) {
+            return extractDocxContent(inputStream);
+        }
+        return null;
+    }
+
+    private String extractDocxContent(InputStream inputStream) {
+        StringBuilder content = new StringBuilder();
+        try {
             XWPFDocument document = new XWPFDocument(inputStream);
             for (XWPFParagraph paragraph : document.getParagraphs()) {
                 content.append(paragraph.getText()).append("\n");
@@ -90,9 +174,9 @@ public class DocumentProcessor {
         return content.toString();
     }
 
-    private String extractPdfContent(Uri uri) {
+    private String extractPdfContent(InputStream inputStream) {
         StringBuilder content = new StringBuilder();
-        try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
+        try {
             PdfReader reader = new PdfReader(inputStream);
             PdfDocument pdfDoc = new PdfDocument(reader);
             int pageCount = pdfDoc.getNumberOfPages();
@@ -109,6 +193,55 @@ public class DocumentProcessor {
         return content.toString();
     }
 
+    /**
+     * Copies the file to target through a DigestInputStream, in fixed-size reads so large
+     * files are never held in memory, and returns its hex SHA-256. Extraction then reads the
+     * copy, so the provider, which may be remote, is read only once, and duplicates are found
+     * before any extractor runs. Also fills in the size when the provider didn't report it.
+     * Returns null if the file can't be copied, in which case the upload is extracted straight
+     * from its URI without deduplication.
+     */
+    private String copyAndHash(Uri uri, DocumentInfo info, File target) {
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory + ", extracting " + info.name + " without deduplication");
+            return null;
+        }
+
+        try (InputStream source = context.getContentResolver().openInputStream(uri)) {
+            if (source == null) return null;
+
+            DigestInputStream inputStream = new DigestInputStream(source, MessageDigest.getInstance("SHA-256"));
+            long size = 0;
+            try (OutputStream out = new FileOutputStream(target)) {
+                byte[] buffer = new byte[HASH_BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            if (info.size <= 0) {
+                info.size = size;
+            }
+            return toHex(inputStream.getMessageDigest().digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(TAG, "Could not copy " + info.name + ", extracting without deduplication", e);
+            target.delete();
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
     private DocumentInfo getDocumentInfo(Uri uri) {
         DocumentInfo info = new DocumentInfo();
 
@@ -150,10 +283,9 @@ public class DocumentProcessor {
         return info;
     }
 
-    private String readTextContent(Uri uri) {
+    private String readTextContent(InputStream inputStream) {
         StringBuilder content = new StringBuilder();
-        try (InputStream inputStream = context.getContentResolver().openInputStream(uri);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
 
             String line;
             while ((line = reader.readLine()) != null) {
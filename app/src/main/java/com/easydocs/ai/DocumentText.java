@@ -0,0 +1,290 @@
+package com.easydocs.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The extracted text of one document, held once and shared by all of its chunks, which only
+ * keep offsets into it. Backed by a String (offsets in chars), by Deflate-compressed blocks
+ * of a ContentStore (offsets in chars) or by a region of a mapped index file (offsets in
+ * UTF-8 bytes).
+ *
+ * Heap-backed text can be spilled to a file under memory pressure and is read back
+ * transparently the next time a chunk needs it. The content never changes, only where it lives.
+ */
+final class DocumentText {
+    private static final int SPILLED_STRING = 0;
+    private static final int SPILLED_COMPRESSED = 1;
+
+    // Heap backing; both null while the text is spilled
+    private volatile String text;
+    private volatile ContentStore.CompressedText compressed;
+    private final ByteBuffer mapped;
+    private final int mappedOffset;
+    private final int mappedLength;
+    private final int length;
+    // Guarded by this
+    private File spillFile;
+    private ContentStore spillStore;
+    // Memory budget bookkeeping for the document owning this text
+    private volatile long lastAccess;
+    private volatile boolean featuresEvicted;
+
+    private DocumentText(String text, ContentStore.CompressedText compressed, ByteBuffer mapped,
+                         int mappedOffset, int mappedLength) {
+        this.text = text;
+        this.compressed = compressed;
+        this.mapped = mapped;
+        this.mappedOffset = mappedOffset;
+        this.mappedLength = mappedLength;
+        this.length = text != null ? text.length() : compressed != null ? compressed.length() : mappedLength;
+    }
+
+    static DocumentText of(String text) {
+        return new DocumentText(text, null, null, 0, 0);
+    }
+
+    static DocumentText compressed(ContentStore.CompressedText compressed) {
+        return new DocumentText(null, compressed, null, 0, 0);
+    }
+
+    // UTF-8 text at [offset, offset + length) of a mapped buffer
+    static DocumentText mapped(ByteBuffer buffer, int offset, int length) {
+        return new DocumentText(null, null, buffer, offset, length);
+    }
+
+    // Length in the units chunk offsets use: chars, or bytes when mapped
+    int length() {
+        return length;
+    }
+
+    // True if the text lives in a mapped buffer outside the Java heap
+    boolean isOffHeap() {
+        return mapped != null;
+    }
+
+    // Rough heap footprint, for memory reporting only; 0 while spilled
+    long estimateHeapBytes() {
+        String text = this.text;
+        if (text != null) return SimpleNLP.estimateStringBytes(text.length());
+        ContentStore.CompressedText compressed = this.compressed;
+        return compressed != null ? compressed.estimateHeapBytes() : 0;
+    }
+
+    // Size of the spill file, 0 unless the text is currently spilled
+    synchronized long spilledBytes() {
+        return spillFile != null ? spillFile.length() : 0;
+    }
+
+    // Materializes [start, end); the result is not cached
+    String substring(int start, int end) {
+        String text = this.text;
+        if (text != null) {
+            return text.substring(start, end);
+        }
+        ContentStore.CompressedText compressed = this.compressed;
+        if (compressed != null) {
+            return compressed.substring(start, end);
+        }
+        if (mapped == null) {
+            return substring(reload(), start, end);
+        }
+
+        // Decode from a private view so concurrent readers don't share a position
+        ByteBuffer view = mapped.duplicate();
+        view.position(mappedOffset + start);
+        view.limit(mappedOffset + end);
+        return StandardCharsets.UTF_8.decode(view).toString();
+    }
+
+    /**
+     * Writes the text as UTF-8 and rewrites offsets, given in this text's units, to byte offsets
+     * into what was written. Returns the number of bytes written.
+     */
+    int writeTo(DataOutputStream out, int[] offsets) throws IOException {
+        if (mapped != null) {
+            ByteBuffer view = mapped.duplicate();
+            view.position(mappedOffset);
+            view.limit(mappedOffset + mappedLength);
+            byte[] block = new byte[Math.min(8192, mappedLength)];
+            while (view.hasRemaining()) {
+                int count = Math.min(block.length, view.remaining());
+                view.get(block, 0, count);
+                out.write(block, 0, count);
+            }
+            return mappedLength;
+        }
+
+        // A spilled text is read for the write without making it resident again
+        String text = this.text;
+        if (text == null) {
+            ContentStore.CompressedText compressed = this.compressed;
+            text = compressed != null ? compressed.substring(0, length) : substring(readSpilled(), 0, length);
+        }
+        if (isAscii(text)) {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes);
+            return bytes.length; // char and byte offsets are the same
+        }
+
+        // Encoded piece by piece between the offsets in ascending order, so each offset becomes
+        // exactly the number of bytes written before it. Lone surrogates, and the halves of a
+        // pair split by an offset, are written as '?', the same replacement String.getBytes uses.
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int[] order = sortedIndexes(offsets);
+        int charIndex = 0;
+        int byteIndex = 0;
+        for (int i : order) {
+            int target = offsets[i];
+            if (target > charIndex) {
+                byteIndex += encode(encoder, text, charIndex, target, out);
+                charIndex = target;
+            }
+            offsets[i] = byteIndex;
+        }
+        return byteIndex + encode(encoder, text, charIndex, text.length(), out);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    // Writes text[start, end) as UTF-8, returning the number of bytes written
+    private static int encode(CharsetEncoder encoder, String text, int start, int end, DataOutputStream out)
+            throws IOException {
+        if (start == end) return 0;
+        ByteBuffer encoded = encoder.encode(CharBuffer.wrap(text, start, end));
+        int count = encoded.remaining();
+        out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), count);
+        return count;
+    }
+
+    /**
+     * Moves the heap backing to file and drops it, returning false if there was nothing to
+     * spill. The next substring reads it back and deletes the file.
+     */
+    synchronized boolean spillTo(File file) throws IOException {
+        String text = this.text;
+        ContentStore.CompressedText compressed = this.compressed;
+        if (spillFile != null || (text == null && compressed == null)) return false;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        boolean written = false;
+        try {
+            if (compressed != null) {
+                out.writeByte(SPILLED_COMPRESSED);
+                compressed.writeTo(out);
+            } else {
+                out.writeByte(SPILLED_STRING);
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            written = true;
+        } finally {
+            out.close();
+            if (!written) file.delete();
+        }
+
+        spillFile = file;
+        spillStore = compressed != null ? compressed.getStore() : null;
+        // Readers holding the old backing finish with it; new ones go through reload()
+        this.text = null;
+        this.compressed = null;
+        return true;
+    }
+
+    // Makes a spilled text resident again, returning the backing as a CompressedText or String
+    private synchronized Object reload() {
+        if (text != null) return text;
+        if (compressed != null) return compressed;
+
+        Object backing = readSpilled();
+        if (backing instanceof String) {
+            text = (String) backing;
+        } else {
+            compressed = (ContentStore.CompressedText) backing;
+        }
+        spillFile.delete();
+        spillFile = null;
+        spillStore = null;
+        return backing;
+    }
+
+    private static String substring(Object backing, int start, int end) {
+        return backing instanceof String ? ((String) backing).substring(start, end)
+                : ((ContentStore.CompressedText) backing).substring(start, end);
+    }
+
+    private synchronized Object readSpilled() {
+        if (spillFile == null) {
+            // Reloaded by another thread meanwhile
+            return text != null ? text : compressed;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+            try {
+                if (in.readByte() == SPILLED_COMPRESSED) {
+                    return spillStore.read(in);
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The text only exists in the spill file, so losing it is not recoverable
+            throw new IllegalStateException("Could not read spilled text from " + spillFile, e);
+        }
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    // Marks the document as just queried, which also lets its chunks cache features again
+    void touch(long stamp) {
+        lastAccess = stamp;
+        featuresEvicted = false;
+    }
+
+    boolean isFeaturesEvicted() {
+        return featuresEvicted;
+    }
+
+    void setFeaturesEvicted() {
+        featuresEvicted = true;
+    }
+
+    private static int[] sortedIndexes(int[] values) {
+        long[] packed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            packed[i] = ((long) values[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        int[] order = new int[values.length];
+        for (int i = 0; i < packed.length; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+}
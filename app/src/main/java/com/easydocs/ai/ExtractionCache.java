@@ -0,0 +1,198 @@
+package com.easydocs.ai;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Persistent cache of extracted document text, keyed by the SHA-256 of the file and the version
+ * of the extractor that produced it, so re-importing a file or rebuilding the index doesn't run
+ * PDF or Word extraction again. Each entry is one Deflate-compressed file; the directory is
+ * kept under a size bound by evicting least recently used entries. Recency survives restarts
+ * through the files' modification times, which hits refresh.
+ *
+ * Thread-safe. Only the bookkeeping is locked; file I/O runs outside the lock, and a read
+ * racing with the eviction of its entry counts as a miss.
+ */
+final class ExtractionCache {
+    private static final String TAG = "ExtractionCache";
+    private static final String SUFFIX = ".txt.z";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final int extractorVersion;
+    // Entry file name -> compressed size, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens the cache in directory, creating it if needed. Entries written by other extractor
+     * versions can never be hit again, so they are deleted here.
+     */
+    ExtractionCache(File directory, long maxBytes, int extractorVersion) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.extractorVersion = extractorVersion;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create cache directory " + directory + ", extraction won't be cached");
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        String currentSuffix = versionSuffix();
+        for (File file : files) {
+            if (file.getName().endsWith(currentSuffix)) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            } else {
+                // Older versions, and temporary files of writes interrupted by process death
+                file.delete();
+            }
+        }
+        evictOverBudget();
+        Log.d(TAG, "Opened with " + entries.size() + " entries, " + totalBytes / 1024 + " KB");
+    }
+
+    /**
+     * Text extracted earlier from the file with contentHash by the current extractor version,
+     * or null if it isn't cached.
+     */
+    String get(String contentHash) {
+        String name = entryName(contentHash);
+        File file = new File(directory, name);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        try {
+            String text = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return text;
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + name, e);
+            remove(name);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Stores text as the extraction of the file with contentHash, evicting old entries over the bound
+    void put(String contentHash, String text) {
+        String name = entryName(contentHash);
+        File file = new File(directory, name);
+        // Unique per write, so two writers of one entry don't share a temporary file
+        File temp = new File(directory, name + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            write(temp, text);
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to cache extracted text " + name, e);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = entries.put(name, file.length());
+            totalBytes += file.length() - (previous != null ? previous : 0);
+            evictOverBudget();
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    // Compressed bytes currently on disk
+    synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, name).delete();
+        }
+    }
+
+    // Caller holds the lock
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private String entryName(String contentHash) {
+        return contentHash + versionSuffix();
+    }
+
+    private String versionSuffix() {
+        return "-v" + extractorVersion + SUFFIX;
+    }
+
+    private static void write(File file, String text) throws IOException {
+        OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(file.length() * 4, Integer.MAX_VALUE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
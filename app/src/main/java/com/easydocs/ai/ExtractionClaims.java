@@ -0,0 +1,88 @@
+package com.easydocs.ai;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Makes sure a file's bytes are extracted once: an upload whose content hash is already in
+ * the library resolves to that document, and concurrent uploads of the same new bytes wait
+ * for the first one's extraction. Only an extraction that found text is passed on to be
+ * added to the library, so a file whose extraction failed is extracted again when picked
+ * a second time.
+ */
+final class ExtractionClaims {
+
+    interface Library {
+        // The library document whose file had contentHash, or null
+        DocumentItem findDocumentByContentHash(String contentHash);
+    }
+
+    interface Extractor {
+        // The new document with its extracted content set, which is null or empty on failure
+        DocumentItem extract() throws Exception;
+    }
+
+    private final Library library;
+    // Content hashes being extracted, each with the latch released when its extraction is done
+    private final ConcurrentHashMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+
+    ExtractionClaims(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Returns the library document with contentHash, if there is one. Otherwise runs extractor
+     * while holding the claim on contentHash and passes its document to callback.onSuccess, which
+     * adds it to the library before the claim is released, or reports an error to callback when
+     * no text was extracted. A null contentHash is extracted without deduplication.
+     */
+    DocumentItem extractOnce(String contentHash, Extractor extractor,
+                             DocumentProcessor.ProcessingCallback callback) throws Exception {
+        CountDownLatch claim = new CountDownLatch(1);
+        try {
+            DocumentItem existing = contentHash != null ? findOrClaim(contentHash, claim) : null;
+            if (existing != null) return existing;
+            callback.onProgress(30);
+
+            DocumentItem document = extractor.extract();
+            String content = document.getContent();
+            if (content == null || content.trim().isEmpty()) {
+                // Not added to the library, so the claim is released with the hash still unknown
+                callback.onError("No text could be extracted from " + document.getName());
+                return null;
+            }
+
+            callback.onProgress(100);
+            callback.onSuccess(document);
+            return null;
+        } finally {
+            // A claim is only held when no existing document was found
+            if (contentHash != null && inFlight.remove(contentHash, claim)) {
+                claim.countDown();
+            }
+        }
+    }
+
+    /**
+     * The library document with contentHash, waiting for a running extraction of the same
+     * content to finish first. Returns null once claim is held on contentHash.
+     */
+    private DocumentItem findOrClaim(String contentHash, CountDownLatch claim) throws InterruptedException {
+        while (true) {
+            DocumentItem existing = library.findDocumentByContentHash(contentHash);
+            if (existing != null) return existing;
+
+            CountDownLatch running = inFlight.putIfAbsent(contentHash, claim);
+            if (running == null) {
+                // The previous holder may have registered its document just before releasing
+                existing = library.findDocumentByContentHash(contentHash);
+                if (existing != null) {
+                    inFlight.remove(contentHash, claim);
+                    claim.countDown();
+                }
+                return existing;
+            }
+            running.await();
+        }
+    }
+}
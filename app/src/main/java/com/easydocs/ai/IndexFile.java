@@ -0,0 +1,305 @@
+package com.easydocs.ai;
+
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary file holding an IndexSnapshot, so the library survives process death
+ * without re-extracting every document.
+ *
+ * Layout: the UTF-8 text of every document back to back, then a metadata section with the
+ * documents and their content hashes, the text blocks, chunk records (block, byte range, term count, keyword boost,
+ * question cues, near-duplicate signature and the canonical chunk of aliases)
+ * and each term with its compressed postings block copied as is, and finally a fixed-size
+ * trailer pointing at the metadata. Reading maps the file and leaves chunk text in the mapping until a query
+ * needs it.
+ */
+final class IndexFile {
+    private static final int MAGIC = 0x45444958; // "EDIX"
+    static final int VERSION = 7;
+    // long metadata offset, int version, int magic
+    private static final int TRAILER_SIZE = 16;
+
+    private IndexFile() {
+    }
+
+    /**
+     * Writes a snapshot without deletions to a temporary file and renames it over file,
+     * so a crash mid-write leaves the previous index intact.
+     */
+    static void write(IndexSnapshot snapshot, File file) throws IOException {
+        if (snapshot.deletedCount > 0) {
+            throw new IllegalArgumentException("Compact the snapshot before writing it");
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            int chunkCount = snapshot.chunks.size();
+
+            // Each shared document text is written once; chunks refer to it by block
+            Map<DocumentText, List<DocumentChunk>> chunksByText = new IdentityHashMap<>();
+            List<DocumentText> texts = new ArrayList<>();
+            for (DocumentChunk chunk : snapshot.chunks) {
+                List<DocumentChunk> textChunks = chunksByText.get(chunk.getText());
+                if (textChunks == null) {
+                    textChunks = new ArrayList<>();
+                    chunksByText.put(chunk.getText(), textChunks);
+                    texts.add(chunk.getText());
+                }
+                textChunks.add(chunk);
+            }
+
+            int[] blocks = new int[chunkCount];
+            int[] starts = new int[chunkCount];
+            int[] ends = new int[chunkCount];
+            int[] blockOffsets = new int[texts.size()];
+            int[] blockLengths = new int[texts.size()];
+            for (int block = 0; block < texts.size(); block++) {
+                List<DocumentChunk> textChunks = chunksByText.get(texts.get(block));
+                int[] offsets = new int[textChunks.size() * 2];
+                for (int i = 0; i < textChunks.size(); i++) {
+                    offsets[2 * i] = textChunks.get(i).getStart();
+                    offsets[2 * i + 1] = textChunks.get(i).getEnd();
+                }
+
+                blockOffsets[block] = out.size();
+                blockLengths[block] = texts.get(block).writeTo(out, offsets);
+                for (int i = 0; i < textChunks.size(); i++) {
+                    int id = textChunks.get(i).getId();
+                    blocks[id] = block;
+                    starts[id] = offsets[2 * i];
+                    ends[id] = offsets[2 * i + 1];
+                }
+            }
+
+            long metadataOffset = out.size();
+            if (metadataOffset >= Integer.MAX_VALUE) {
+                throw new IOException("Index text exceeds the mappable size");
+            }
+
+            out.writeInt(snapshot.documentRanges.size());
+            for (Map.Entry<DocumentItem, int[]> entry : snapshot.documentRanges.entrySet()) {
+                DocumentItem document = entry.getKey();
+                writeString(out, document.getName());
+                writeString(out, document.getPath());
+                writeString(out, document.getMimeType());
+                out.writeLong(document.getSize());
+                out.writeLong(document.getDateAdded());
+                writeString(out, document.getUri() != null ? document.getUri().toString() : null);
+                writeString(out, document.getContentHash());
+                out.writeInt(entry.getValue()[0]);
+                out.writeInt(entry.getValue()[1]);
+            }
+
+            out.writeInt(texts.size());
+            for (int block = 0; block < texts.size(); block++) {
+                out.writeInt(blockOffsets[block]);
+                out.writeInt(blockLengths[block]);
+            }
+
+            out.writeInt(chunkCount);
+            for (int id = 0; id < chunkCount; id++) {
+                DocumentChunk chunk = snapshot.chunks.get(id);
+                out.writeInt(blocks[id]);
+                out.writeInt(starts[id]);
+                out.writeInt(ends[id]);
+                out.writeLong(chunk.getTimestamp());
+                out.writeInt(chunk.getTermCount());
+                out.writeDouble(chunk.getKeywordBoost());
+                out.writeInt(chunk.getQuestionCues());
+                out.writeLong(chunk.getSignature());
+                Integer canonical = snapshot.duplicates.get(id);
+                out.writeInt(canonical != null ? canonical : -1);
+            }
+
+            out.writeInt(snapshot.indexedTermCount);
+            for (int termId = 0; termId < snapshot.postings.length; termId++) {
+                PostingsList postings = snapshot.postings[termId];
+                if (postings == null || postings.isEmpty()) continue;
+
+                writeString(out, snapshot.dictionary.term(termId));
+                out.writeInt(postings.size());
+                out.writeInt(postings.encodedLength());
+                postings.writeTo(out);
+            }
+            out.writeLong(snapshot.corpusStats.getTotalTermCount());
+
+            out.writeLong(metadataOffset);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Maps file and rebuilds the snapshot it holds. Document text stays in the mapping and chunk
+     * features are computed with analyzer the first time a query touches them. The file's terms
+     * are interned into dictionary, the one analyzer takes its ids from, and the postings are
+     * placed by those ids.
+     *
+     * @param offHeap also leave the postings in the mapping and have chunks recompute their
+     *                features on every use instead of caching them on the heap
+     */
+    static IndexSnapshot read(File file, TermDictionary dictionary, SimpleNLP analyzer, boolean offHeap) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        int size = buffer.capacity();
+        if (size < TRAILER_SIZE || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException("Not an index file: " + file);
+        }
+        int version = buffer.getInt(size - 8);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version + " in " + file);
+        }
+        long metadataOffset = buffer.getLong(size - TRAILER_SIZE);
+        if (metadataOffset < 0 || metadataOffset > size - TRAILER_SIZE) {
+            throw new IOException("Corrupt index trailer in " + file);
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) metadataOffset);
+
+        int documentCount = in.getInt();
+        List<DocumentItem> documents = new ArrayList<>(documentCount);
+        Map<DocumentItem, int[]> documentRanges = new LinkedHashMap<>();
+        for (int i = 0; i < documentCount; i++) {
+            DocumentItem document = new DocumentItem(readString(in), readString(in), readString(in), in.getLong());
+            document.setDateAdded(in.getLong());
+            String uri = readString(in);
+            if (uri != null) {
+                document.setUri(Uri.parse(uri));
+            }
+            document.setContentHash(readString(in));
+            documents.add(document);
+            documentRanges.put(document, new int[]{in.getInt(), in.getInt()});
+        }
+
+        int blockCount = in.getInt();
+        DocumentText[] texts = new DocumentText[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            int offset = in.getInt();
+            int length = in.getInt();
+            if (offset < 0 || length < 0 || (long) offset + length > metadataOffset) {
+                throw new IOException("Corrupt text block in " + file);
+            }
+            texts[block] = DocumentText.mapped(buffer, offset, length);
+        }
+
+        int chunkCount = in.getInt();
+        List<DocumentChunk> chunks = new ArrayList<>(chunkCount);
+        Map<Integer, Integer> duplicates = new HashMap<>();
+        for (DocumentItem document : documents) {
+            int[] range = documentRanges.get(document);
+            if (range[0] != chunks.size() || range[1] < range[0] || range[1] > chunkCount) {
+                throw new IOException("Corrupt document range in " + file);
+            }
+            for (int id = range[0]; id < range[1]; id++) {
+                int block = in.getInt();
+                int start = in.getInt();
+                int end = in.getInt();
+                if (block < 0 || block >= blockCount || start < 0 || end < start || end > texts[block].length()) {
+                    throw new IOException("Corrupt chunk record in " + file);
+                }
+                DocumentChunk chunk = DocumentChunk.restored(document.getFileName(), document.getFileType(),
+                        in.getLong(), texts[block], start, end, in.getInt(), in.getDouble(), in.getInt(),
+                        in.getLong(), analyzer, !offHeap);
+                chunk.setId(id);
+                chunks.add(chunk);
+
+                int canonical = in.getInt();
+                if (canonical >= 0) {
+                    if (canonical >= chunkCount || canonical == id) {
+                        throw new IOException("Corrupt duplicate record in " + file);
+                    }
+                    duplicates.put(id, canonical);
+                }
+            }
+        }
+        if (chunks.size() != chunkCount) {
+            throw new IOException("Chunks outside any document in " + file);
+        }
+
+        int termCount = in.getInt();
+        // Ids in dictionary, which may hold terms of other texts too, differ from the file's order
+        PostingsList[] postings = new PostingsList[termCount];
+        int postingsLength = 0;
+        for (int i = 0; i < termCount; i++) {
+            int termId = dictionary.intern(readString(in));
+            int postingCount = in.getInt();
+            int length = in.getInt();
+            PostingsList list;
+            if (offHeap) {
+                list = PostingsList.fromEncoded(buffer, in.position(), length, postingCount);
+                in.position(in.position() + length);
+            } else {
+                byte[] encoded = new byte[length];
+                in.get(encoded);
+                list = PostingsList.fromEncoded(encoded, postingCount);
+            }
+            if (termId >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(termId + 1, 2 * postings.length));
+            }
+            if (postings[termId] != null || list.lastChunkId() >= chunkCount) {
+                throw new IOException("Corrupt postings in " + file);
+            }
+            postings[termId] = list;
+            postingsLength = Math.max(postingsLength, termId + 1);
+        }
+        postings = Arrays.copyOf(postings, postingsLength);
+        long totalTermCount = in.getLong();
+
+        CorpusStats corpusStats = CorpusStats.fromPostings(postings, chunks.size() - duplicates.size(), totalTermCount);
+        return IndexSnapshot.restored(chunks, dictionary, postings, corpusStats, documentRanges, duplicates);
+    }
+
+    // Length-prefixed UTF-8, with -1 standing for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
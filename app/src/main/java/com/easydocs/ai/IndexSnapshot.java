@@ -0,0 +1,366 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable version of the index. Nothing reachable from a published snapshot is modified
+ * again: every with/without method copies the postings array, postings lists or deletion
+ * bitmap it changes, and chunks are never re-numbered in place. The term dictionary is
+ * append-only and shared by all snapshots of one store.
+ *
+ * A chunk that near-duplicates one already indexed is kept in its document's range as an
+ * alias of that canonical chunk, but has no postings and is never a candidate. When the
+ * canonical chunk's document is removed, one of its aliases takes its place in the postings.
+ */
+final class IndexSnapshot {
+    final List<DocumentChunk> chunks;
+    final TermDictionary dictionary;
+    // Term id -> chunks containing the term with their frequencies; null for unused ids
+    final PostingsList[] postings;
+    // Number of terms with at least one posting
+    final int indexedTermCount;
+    // Chunk count, keyword count and document frequencies over live chunks other than aliases
+    final CorpusStats corpusStats;
+    // Live documents -> [first chunk id, end chunk id), in insertion order
+    final Map<DocumentItem, int[]> documentRanges;
+    // Tombstones: chunk ids of removed documents that are still in chunks and postings
+    final BitSet deleted;
+    final int deletedCount;
+    // Live alias chunk id -> id of the canonical chunk it duplicates
+    final Map<Integer, Integer> duplicates;
+
+    private IndexSnapshot(List<DocumentChunk> chunks, TermDictionary dictionary, PostingsList[] postings,
+                          int indexedTermCount, CorpusStats corpusStats, Map<DocumentItem, int[]> documentRanges,
+                          BitSet deleted, int deletedCount, Map<Integer, Integer> duplicates) {
+        this.chunks = chunks;
+        this.dictionary = dictionary;
+        this.postings = postings;
+        this.indexedTermCount = indexedTermCount;
+        this.corpusStats = corpusStats;
+        this.documentRanges = documentRanges;
+        this.deleted = deleted;
+        this.deletedCount = deletedCount;
+        this.duplicates = duplicates;
+    }
+
+    // Empty index whose terms get their ids from dictionary, typically the analyzer's
+    static IndexSnapshot empty(TermDictionary dictionary) {
+        return new IndexSnapshot(Collections.<DocumentChunk>emptyList(), dictionary, new PostingsList[0], 0, CorpusStats.EMPTY,
+                Collections.<DocumentItem, int[]>emptyMap(), new BitSet(), 0, Collections.<Integer, Integer>emptyMap());
+    }
+
+    /**
+     * Snapshot over chunks and postings read back from an index file. Chunk ids must already
+     * match their positions and the file never contains deleted chunks.
+     */
+    static IndexSnapshot restored(List<DocumentChunk> chunks, TermDictionary dictionary, PostingsList[] postings,
+                                  CorpusStats corpusStats, Map<DocumentItem, int[]> documentRanges,
+                                  Map<Integer, Integer> duplicates) {
+        return new IndexSnapshot(chunks, dictionary, postings, countIndexedTerms(postings), corpusStats,
+                documentRanges, new BitSet(), 0, duplicates);
+    }
+
+    /**
+     * Same index with the document keys replaced, in order, by those of source. Used when
+     * swapping in a snapshot read back from a file, so callers keep their DocumentItem objects.
+     */
+    IndexSnapshot withDocumentsOf(IndexSnapshot source) {
+        if (source.documentRanges.size() != documentRanges.size()) {
+            throw new IllegalArgumentException("Snapshots hold different documents");
+        }
+
+        Map<DocumentItem, int[]> newRanges = new LinkedHashMap<>();
+        Iterator<DocumentItem> documents = source.documentRanges.keySet().iterator();
+        for (int[] range : documentRanges.values()) {
+            newRanges.put(documents.next(), range);
+        }
+        return new IndexSnapshot(chunks, dictionary, postings, indexedTermCount, corpusStats, newRanges,
+                deleted, deletedCount, duplicates);
+    }
+
+    // Postings of term, or null if no chunk in this snapshot ever contained it
+    PostingsList getPostings(String term) {
+        return getPostings(dictionary.lookup(term));
+    }
+
+    // Same for a term id, which may be negative for terms not in the dictionary
+    PostingsList getPostings(int termId) {
+        // Ids interned after this snapshot was published are beyond its postings array
+        return termId >= 0 && termId < postings.length ? postings[termId] : null;
+    }
+
+    boolean isDeleted(DocumentChunk chunk) {
+        return isDeleted(chunk.getId());
+    }
+
+    boolean isDeleted(int chunkId) {
+        return deletedCount > 0 && deleted.get(chunkId);
+    }
+
+    boolean isDuplicate(int chunkId) {
+        return !duplicates.isEmpty() && duplicates.containsKey(chunkId);
+    }
+
+    // Live chunks other than aliases, i.e. those that can be retrieved
+    int liveChunkCount() {
+        return chunks.size() - deletedCount - duplicates.size();
+    }
+
+    double deletedFraction() {
+        return chunks.isEmpty() ? 0.0 : (double) deletedCount / chunks.size();
+    }
+
+    List<DocumentChunk> liveChunks() {
+        if (deletedCount == 0 && duplicates.isEmpty()) return chunks;
+
+        List<DocumentChunk> live = new ArrayList<>(liveChunkCount());
+        for (DocumentChunk chunk : chunks) {
+            if (!isDeleted(chunk.getId()) && !isDuplicate(chunk.getId())) {
+                live.add(chunk);
+            }
+        }
+        return live;
+    }
+
+    // Names of the documents containing chunk: its own, then those of its aliases
+    List<String> sourceDocuments(DocumentChunk chunk) {
+        List<String> names = new ArrayList<>();
+        names.add(chunk.getDocumentName());
+        for (Map.Entry<Integer, Integer> entry : duplicates.entrySet()) {
+            if (entry.getValue() == chunk.getId()) {
+                String name = chunks.get(entry.getKey()).getDocumentName();
+                if (!names.contains(name)) names.add(name);
+            }
+        }
+        return names;
+    }
+
+    IndexSnapshot withDocument(DocumentItem document, List<DocumentChunk> addedChunks) {
+        return withDocument(document, addedChunks, new DocumentChunk[addedChunks.size()]);
+    }
+
+    IndexSnapshot withDocument(DocumentItem document, List<DocumentChunk> addedChunks, DocumentChunk[] canonicals) {
+        return withDocuments(Collections.singletonMap(document, addedChunks),
+                Collections.singletonMap(document, canonicals));
+    }
+
+    /**
+     * Appends freshly created chunks of each document, in the order of added; they are numbered
+     * here, before anyone can see them. The chunk list, postings and statistics are copied once
+     * for all of them, so a batch costs one copy of the index rather than one per document.
+     * canonicals.get(document)[i], if not null, is the indexed or earlier added chunk that
+     * chunk i near-duplicates; chunk i is then added as its alias, without postings.
+     */
+    IndexSnapshot withDocuments(Map<DocumentItem, List<DocumentChunk>> added,
+                                Map<DocumentItem, DocumentChunk[]> canonicals) {
+        IndexSnapshot base = this;
+        int addedCount = 0;
+        for (Map.Entry<DocumentItem, List<DocumentChunk>> entry : added.entrySet()) {
+            if (base.documentRanges.containsKey(entry.getKey())) {
+                base = base.withoutDocument(entry.getKey());
+            }
+            addedCount += entry.getValue().size();
+        }
+
+        List<DocumentChunk> newChunks = new ArrayList<>(base.chunks.size() + addedCount);
+        newChunks.addAll(base.chunks);
+        Map<Integer, PostingsList.Builder> builders = new HashMap<>();
+        Map<Integer, Integer> newDuplicates = base.duplicates;
+        Map<DocumentItem, int[]> newRanges = new LinkedHashMap<>(base.documentRanges);
+        List<SimpleNLP.TextFeatures> indexed = new ArrayList<>(addedCount);
+
+        for (Map.Entry<DocumentItem, List<DocumentChunk>> entry : added.entrySet()) {
+            List<DocumentChunk> addedChunks = entry.getValue();
+            DocumentChunk[] documentCanonicals = canonicals.get(entry.getKey());
+            int firstId = newChunks.size();
+
+            for (int i = 0; i < addedChunks.size(); i++) {
+                DocumentChunk chunk = addedChunks.get(i);
+                chunk.setId(newChunks.size());
+                newChunks.add(chunk);
+
+                DocumentChunk canonical = documentCanonicals != null ? documentCanonicals[i] : null;
+                // The canonical may have been removed with an earlier version of this document
+                if (canonical != null && canonical.getId() < newChunks.size() - 1
+                        && newChunks.get(canonical.getId()) == canonical
+                        && !base.isDeleted(canonical.getId()) && !newDuplicates.containsKey(canonical.getId())) {
+                    if (newDuplicates == base.duplicates) {
+                        newDuplicates = new HashMap<>(base.duplicates);
+                    }
+                    newDuplicates.put(chunk.getId(), canonical.getId());
+                    continue;
+                }
+                indexed.add(chunk.getFeatures());
+                addPostings(base.postings, builders, chunk);
+            }
+            newRanges.put(entry.getKey(), new int[]{firstId, newChunks.size()});
+        }
+
+        PostingsList[] newPostings = applyBuilders(base.postings, builders);
+        CorpusStats newStats = base.corpusStats.with(indexed, Collections.<SimpleNLP.TextFeatures>emptyList());
+        return new IndexSnapshot(newChunks, base.dictionary, newPostings, countIndexedTerms(newPostings),
+                newStats, newRanges, base.deleted, base.deletedCount, newDuplicates);
+    }
+
+    IndexSnapshot withoutDocument(DocumentItem document) {
+        int[] range = documentRanges.get(document);
+        if (range == null) return this;
+
+        BitSet newDeleted = (BitSet) deleted.clone();
+        newDeleted.set(range[0], range[1]);
+        // Features of chunks whose text was released are recomputed here to uncount their keywords
+        List<SimpleNLP.TextFeatures> uncounted = new ArrayList<>(range[1] - range[0]);
+        List<SimpleNLP.TextFeatures> counted = new ArrayList<>();
+        Map<Integer, Integer> newDuplicates = duplicates.isEmpty() ? duplicates : new HashMap<>(duplicates);
+        for (int id = range[0]; id < range[1]; id++) {
+            // Aliases were never counted
+            if (newDuplicates.remove(id) == null) {
+                uncounted.add(chunks.get(id).peekOrComputeFeatures());
+            }
+        }
+
+        // The first surviving alias of each removed canonical chunk becomes canonical itself
+        PostingsList[] newPostings = postings;
+        Map<Integer, Integer> promoted = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : new TreeMap<>(newDuplicates).entrySet()) {
+            int canonicalId = entry.getValue();
+            if (canonicalId < range[0] || canonicalId >= range[1]) continue;
+
+            Integer replacement = promoted.get(canonicalId);
+            if (replacement == null) {
+                int aliasId = entry.getKey();
+                promoted.put(canonicalId, aliasId);
+                newDuplicates.remove(aliasId);
+                DocumentChunk alias = chunks.get(aliasId);
+                newPostings = insertPostings(newPostings == postings ? postings.clone() : newPostings, alias);
+                counted.add(alias.getTermFeatures());
+            } else {
+                newDuplicates.put(entry.getKey(), replacement);
+            }
+        }
+
+        Map<DocumentItem, int[]> newRanges = new LinkedHashMap<>(documentRanges);
+        newRanges.remove(document);
+        int newIndexedTermCount = newPostings == postings ? indexedTermCount : countIndexedTerms(newPostings);
+        return new IndexSnapshot(chunks, dictionary, newPostings, newIndexedTermCount,
+                corpusStats.with(counted, uncounted), newRanges, newDeleted, deletedCount + (range[1] - range[0]),
+                newDuplicates);
+    }
+
+    /**
+     * Rebuilds the chunk list and postings without the deleted chunks. Live chunks are
+     * copied with their new ids, since older snapshots may still be reading the originals.
+     */
+    IndexSnapshot compacted() {
+        List<DocumentChunk> newChunks = new ArrayList<>(liveChunkCount());
+        Map<DocumentItem, int[]> newRanges = new LinkedHashMap<>();
+        // Documents are kept in id order, so the remapped ids stay increasing
+        int[] newIds = new int[chunks.size()];
+        Arrays.fill(newIds, -1);
+
+        for (Map.Entry<DocumentItem, int[]> entry : documentRanges.entrySet()) {
+            int[] range = entry.getValue();
+            int firstId = newChunks.size();
+            for (int id = range[0]; id < range[1]; id++) {
+                DocumentChunk chunk = chunks.get(id).copy();
+                newIds[id] = newChunks.size();
+                chunk.setId(newIds[id]);
+                newChunks.add(chunk);
+            }
+            newRanges.put(entry.getKey(), new int[]{firstId, newChunks.size()});
+        }
+
+        Map<Integer, Integer> newDuplicates = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : duplicates.entrySet()) {
+            newDuplicates.put(newIds[entry.getKey()], newIds[entry.getValue()]);
+        }
+
+        // Postings are remapped rather than rebuilt, so compaction never re-analyzes chunk text
+        PostingsList[] newPostings = new PostingsList[postings.length];
+        for (int termId = 0; termId < postings.length; termId++) {
+            if (postings[termId] == null) continue;
+
+            PostingsList.Builder builder = PostingsList.EMPTY.toBuilder();
+            PostingsList.Cursor cursor = postings[termId].cursor();
+            while (cursor.next()) {
+                int newId = newIds[cursor.chunkId()];
+                if (newId >= 0) {
+                    builder.add(newId, cursor.termFrequency());
+                }
+            }
+            PostingsList remapped = builder.build();
+            newPostings[termId] = remapped.isEmpty() ? null : remapped;
+        }
+
+        return new IndexSnapshot(newChunks, dictionary, newPostings, countIndexedTerms(newPostings),
+                corpusStats, newRanges, new BitSet(), 0, newDuplicates);
+    }
+
+    // Chunk features were analyzed into the dictionary, so their keyword ids are term ids
+    private static void addPostings(PostingsList[] postings, Map<Integer, PostingsList.Builder> builders,
+                                    DocumentChunk chunk) {
+        SimpleNLP.TextFeatures features = chunk.getTermFeatures();
+        int[] termIds = features.getKeywordIds();
+        int[] frequencies = features.getKeywordFrequencies();
+        for (int i = 0; i < termIds.length; i++) {
+            int termId = termIds[i];
+            PostingsList.Builder builder = builders.get(termId);
+            if (builder == null) {
+                PostingsList existing = termId < postings.length ? postings[termId] : null;
+                builder = (existing != null ? existing : PostingsList.EMPTY).toBuilder();
+                builders.put(termId, builder);
+            }
+            builder.add(chunk.getId(), frequencies[i]);
+        }
+    }
+
+    /**
+     * Adds a chunk whose id may be below the last posting of its terms, replacing each list it
+     * touches with a copy. Updates postings in place unless it has to grow it; returns the result.
+     */
+    private static PostingsList[] insertPostings(PostingsList[] postings, DocumentChunk chunk) {
+        SimpleNLP.TextFeatures features = chunk.getTermFeatures();
+        int[] termIds = features.getKeywordIds();
+        int[] frequencies = features.getKeywordFrequencies();
+        for (int i = 0; i < termIds.length; i++) {
+            int termId = termIds[i];
+            if (termId >= postings.length) {
+                postings = Arrays.copyOf(postings, termId + 1);
+            }
+            PostingsList existing = postings[termId];
+            postings[termId] = (existing != null ? existing : PostingsList.EMPTY)
+                    .withPosting(chunk.getId(), frequencies[i]);
+        }
+        return postings;
+    }
+
+    private static PostingsList[] applyBuilders(PostingsList[] postings, Map<Integer, PostingsList.Builder> builders) {
+        // Sized by the terms in use, as the dictionary also holds tokens that have no postings
+        int length = postings.length;
+        for (int termId : builders.keySet()) {
+            length = Math.max(length, termId + 1);
+        }
+        PostingsList[] result = Arrays.copyOf(postings, length);
+        for (Map.Entry<Integer, PostingsList.Builder> entry : builders.entrySet()) {
+            result[entry.getKey()] = entry.getValue().build();
+        }
+        return result;
+    }
+
+    private static int countIndexedTerms(PostingsList[] postings) {
+        int count = 0;
+        for (PostingsList list : postings) {
+            if (list != null && !list.isEmpty()) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,221 @@
+package com.easydocs.ai;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the heap held by an index under a configurable budget. Usage is accounted per document
+ * for its text, its chunks' cached features and a share of the postings proportional to its
+ * term count. Over budget, the least recently queried documents are evicted in two tiers:
+ * first their text is spilled to disk, which scoring doesn't need, then their cached features
+ * are dropped down to the compact id record chunks are scored with.
+ * Postings and the term dictionary are never evicted.
+ */
+final class MemoryBudget {
+    private static final String SPILL_SUFFIX = ".spill";
+
+    // 0 means unlimited
+    private volatile long budgetBytes;
+    private volatile File spillDirectory;
+    private final AtomicLong nextSpillId = new AtomicLong();
+
+    long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+    }
+
+    // Spill files left by a previous process are unreachable, so they are deleted here
+    void setSpillDirectory(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w("MemoryBudget", "Cannot create spill directory " + directory + ", text stays on the heap");
+            return;
+        }
+        File[] leftovers = directory.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (leftover.getName().endsWith(SPILL_SUFFIX)) {
+                    leftover.delete();
+                }
+            }
+        }
+        spillDirectory = directory;
+    }
+
+    /**
+     * Evicts least recently queried documents until the estimated heap usage of index fits the
+     * budget, text first and features second. Runs on the maintenance thread; queries keep
+     * working during it because evicted data is reloaded or recomputed on access.
+     */
+    void enforce(IndexSnapshot index) {
+        long budget = budgetBytes;
+        if (budget <= 0) return;
+
+        VectorStore.MemoryUsage total = measure(index);
+        long usage = total.getHeapBytes();
+        if (usage <= budget) return;
+
+        List<DocumentFootprint> documents = measureDocuments(index, total.getHeapIndexBytes());
+        Collections.sort(documents, new Comparator<DocumentFootprint>() {
+            @Override
+            public int compare(DocumentFootprint a, DocumentFootprint b) {
+                return Long.compare(a.text.getLastAccess(), b.text.getLastAccess());
+            }
+        });
+
+        File directory = spillDirectory;
+        int textCount = 0;
+        if (directory != null) {
+            for (DocumentFootprint document : documents) {
+                if (usage <= budget) break;
+                if (document.textBytes == 0) continue;
+                try {
+                    File file = new File(directory, "text-" + nextSpillId.getAndIncrement() + SPILL_SUFFIX);
+                    if (document.text.spillTo(file)) {
+                        usage -= document.textBytes;
+                        textCount++;
+                    }
+                } catch (IOException e) {
+                    Log.e("MemoryBudget", "Failed to spill text of " + document.name, e);
+                    break;
+                }
+            }
+        }
+
+        int featureCount = 0;
+        for (DocumentFootprint document : documents) {
+            if (usage <= budget) break;
+            if (document.evictableFeatureBytes == 0) continue;
+            // Flag the text first, so a concurrent query doesn't cache the features again
+            document.text.setFeaturesEvicted();
+            for (int id = document.range[0]; id < document.range[1]; id++) {
+                index.chunks.get(id).evictFeatures();
+            }
+            usage -= document.evictableFeatureBytes;
+            featureCount++;
+        }
+
+        Log.d("MemoryBudget", "Spilled text of " + textCount + " and features of " + featureCount
+                + " documents, heap now ~" + usage / 1024 + " KB of " + budget / 1024 + " KB");
+        if (usage > budget) {
+            Log.w("MemoryBudget", "Index needs ~" + usage / 1024 + " KB after eviction, over the "
+                    + budget / 1024 + " KB budget");
+        }
+    }
+
+    /**
+     * Estimates the memory held by index in each tier: heap, mapped buffers outside it and
+     * spill files on disk. Walks every chunk and postings list.
+     */
+    static VectorStore.MemoryUsage measure(IndexSnapshot index) {
+        long heapText = 0;
+        long heapIndex = 0;
+        long heapFeatures = 0;
+        long offHeap = 0;
+        long spilled = 0;
+
+        Set<DocumentText> texts = Collections.newSetFromMap(new IdentityHashMap<DocumentText, Boolean>());
+        for (DocumentChunk chunk : index.chunks) {
+            DocumentText text = chunk.getText();
+            if (texts.add(text)) {
+                if (text.isOffHeap()) {
+                    offHeap += text.length();
+                } else {
+                    heapText += text.estimateHeapBytes();
+                    spilled += text.spilledBytes();
+                }
+            }
+            heapFeatures += chunk.estimateFeatureBytes();
+        }
+
+        heapIndex += 16 + 4L * index.postings.length;
+        for (PostingsList postings : index.postings) {
+            if (postings == null) continue;
+            heapIndex += 40;
+            if (postings.isOffHeap()) {
+                offHeap += postings.encodedLength();
+            } else {
+                heapIndex += 16 + postings.encodedLength();
+            }
+        }
+        for (int termId = 0; termId < index.postings.length; termId++) {
+            heapIndex += SimpleNLP.estimateStringBytes(index.dictionary.term(termId).length()) + 48;
+        }
+
+        return new VectorStore.MemoryUsage(heapText, heapIndex, heapFeatures, offHeap, spilled);
+    }
+
+    // Per-document usage keyed by document name, in insertion order
+    static Map<String, VectorStore.MemoryUsage> measureByDocument(IndexSnapshot index) {
+        List<DocumentFootprint> documents = measureDocuments(index, measure(index).getHeapIndexBytes());
+        Map<String, VectorStore.MemoryUsage> usage = new LinkedHashMap<>();
+        for (DocumentFootprint document : documents) {
+            usage.put(document.name, new VectorStore.MemoryUsage(document.textBytes, document.indexBytes,
+                    document.featureBytes, document.offHeapBytes, document.spilledBytes));
+        }
+        return usage;
+    }
+
+    // The postings of a document are interleaved with all others, so it is charged by term count
+    private static List<DocumentFootprint> measureDocuments(IndexSnapshot index, long heapIndexBytes) {
+        List<DocumentFootprint> documents = new ArrayList<>(index.documentRanges.size());
+        for (Map.Entry<DocumentItem, int[]> entry : index.documentRanges.entrySet()) {
+            int[] range = entry.getValue();
+            if (range[0] == range[1]) continue;
+
+            DocumentText text = index.chunks.get(range[0]).getText();
+            long featureBytes = 0;
+            long evictableFeatureBytes = 0;
+            long termCount = 0;
+            for (int id = range[0]; id < range[1]; id++) {
+                DocumentChunk chunk = index.chunks.get(id);
+                featureBytes += chunk.estimateFeatureBytes();
+                evictableFeatureBytes += chunk.estimateEvictableFeatureBytes();
+                termCount += chunk.getTermCount();
+            }
+
+            DocumentFootprint document = new DocumentFootprint(entry.getKey().getFileName(), text, range);
+            document.textBytes = text.estimateHeapBytes();
+            document.offHeapBytes = text.isOffHeap() ? text.length() : 0;
+            document.spilledBytes = text.spilledBytes();
+            document.featureBytes = featureBytes;
+            document.evictableFeatureBytes = evictableFeatureBytes;
+            document.indexBytes = index.corpusStats.getTotalTermCount() > 0
+                    ? heapIndexBytes * termCount / index.corpusStats.getTotalTermCount() : 0;
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private static final class DocumentFootprint {
+        final String name;
+        final DocumentText text;
+        // [first chunk id, end chunk id)
+        final int[] range;
+        long textBytes;
+        long featureBytes;
+        long evictableFeatureBytes;
+        long indexBytes;
+        long offHeapBytes;
+        long spilledBytes;
+
+        DocumentFootprint(String name, DocumentText text, int[] range) {
+            this.name = name;
+            this.text = text;
+            this.range = range;
+        }
+    }
+}
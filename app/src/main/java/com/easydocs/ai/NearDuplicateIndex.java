@@ -0,0 +1,138 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds near-duplicate chunks through 64-bit SimHash signatures of their keyword frequencies.
+ * Signatures within MAX_DISTANCE bits of each other agree exactly on at least one of
+ * BANDS equal slices, so each slice value is a hash key and a lookup only compares the few
+ * chunks sharing a slice instead of every chunk. Candidates are confirmed by keyword Jaccard,
+ * since unrelated short texts can collide.
+ *
+ * Not thread-safe; the store uses it under its write lock and builds it for one snapshot.
+ */
+final class NearDuplicateIndex {
+    // Chunks with fewer keywords have too little content for a meaningful signature
+    static final int MIN_TERMS = 8;
+    static final long NO_SIGNATURE = 0L;
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final int MAX_DISTANCE = BANDS - 1;
+    private static final double MIN_JACCARD = 0.8;
+
+    // Band number and slice value -> canonical chunks with that slice
+    private final Map<Long, List<DocumentChunk>> bands = new HashMap<>();
+    private IndexSnapshot snapshot;
+
+    private NearDuplicateIndex(IndexSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // Indexes every live canonical chunk of snapshot
+    static NearDuplicateIndex build(IndexSnapshot snapshot) {
+        NearDuplicateIndex index = new NearDuplicateIndex(snapshot);
+        for (DocumentChunk chunk : snapshot.liveChunks()) {
+            index.add(chunk);
+        }
+        return index;
+    }
+
+    // The snapshot whose canonical chunks this index holds
+    IndexSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Called once the chunks added since build() have been published in snapshot
+    void setSnapshot(IndexSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * SimHash of term frequencies: every term votes on each of the 64 bits with its frequency,
+     * by the sign of that bit in the term's hash. Returns NO_SIGNATURE for texts below MIN_TERMS.
+     */
+    static long signature(SimpleNLP.TextFeatures features) {
+        if (features.getKeywordCount() < MIN_TERMS) return NO_SIGNATURE;
+
+        int[] votes = new int[64];
+        for (Map.Entry<String, Integer> entry : features.getTermFrequencies().entrySet()) {
+            long hash = hash64(entry.getKey());
+            int weight = entry.getValue();
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((hash >>> bit) & 1) != 0 ? weight : -weight;
+            }
+        }
+
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) signature |= 1L << bit;
+        }
+        // NO_SIGNATURE is reserved; a real all-zero signature is vanishingly rare
+        return signature != NO_SIGNATURE ? signature : 1L;
+    }
+
+    // Canonical chunk chunk duplicates, or null if it is unique so far
+    DocumentChunk findDuplicate(DocumentChunk chunk) {
+        long signature = chunk.getSignature();
+        if (signature == NO_SIGNATURE) return null;
+
+        for (int band = 0; band < BANDS; band++) {
+            List<DocumentChunk> candidates = bands.get(bandKey(band, signature));
+            if (candidates == null) continue;
+
+            for (DocumentChunk candidate : candidates) {
+                if (Long.bitCount(candidate.getSignature() ^ signature) <= MAX_DISTANCE
+                        && keywordJaccard(candidate, chunk) >= MIN_JACCARD) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Makes chunk findable as a canonical chunk
+    void add(DocumentChunk chunk) {
+        long signature = chunk.getSignature();
+        if (signature == NO_SIGNATURE) return;
+
+        for (int band = 0; band < BANDS; band++) {
+            Long key = bandKey(band, signature);
+            List<DocumentChunk> chunks = bands.get(key);
+            if (chunks == null) {
+                chunks = new ArrayList<>(2);
+                bands.put(key, chunks);
+            }
+            chunks.add(chunk);
+        }
+    }
+
+    private static double keywordJaccard(DocumentChunk a, DocumentChunk b) {
+        SimpleNLP.TextFeatures featuresA = a.getTermFeatures();
+        SimpleNLP.TextFeatures featuresB = b.getTermFeatures();
+        if (!featuresA.sharesVocabulary(featuresB)) return 0.0;
+        return SimpleNLP.jaccard(featuresA.getKeywordIds(), featuresB.getKeywordIds());
+    }
+
+    private static long bandKey(int band, long signature) {
+        long slice = (signature >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        return ((long) band << BAND_BITS) | slice;
+    }
+
+    // 64-bit FNV-1a over the chars, finished with a MurmurHash3 mix so all bits are used
+    private static long hash64(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            hash ^= term.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
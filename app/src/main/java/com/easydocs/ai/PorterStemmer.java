@@ -0,0 +1,294 @@
+package com.easydocs.ai;
+
+/**
+ * The Porter (1980) English stemmer, following Martin Porter's reference implementation
+ * including its published departures ("bli" to "ble", the "logi" rule). Works in place on a
+ * lowercase word in a char buffer and never lengthens it, so stemming a tokenizer's buffer
+ * allocates nothing.
+ *
+ * Not thread-safe: an instance keeps the word being stemmed in fields.
+ */
+final class PorterStemmer {
+    private char[] b;
+    // Index of the last char of the word
+    private int k;
+    // End of the stem before the suffix found by the last ends() call
+    private int j;
+
+    /**
+     * Stems word[0, length) in place and returns the stem's length. Words of up to two
+     * letters are left alone.
+     */
+    int stem(char[] word, int length) {
+        if (length <= 2) return length;
+
+        b = word;
+        k = length - 1;
+        step1ab();
+        if (k > 0) {
+            step1c();
+            step2();
+            step3();
+            step4();
+            step5();
+        }
+        b = null;
+        return k + 1;
+    }
+
+    // True if b[i] is a consonant; y is one at the start or after a vowel
+    private boolean cons(int i) {
+        switch (b[i]) {
+            case 'a':
+            case 'e':
+            case 'i':
+            case 'o':
+            case 'u':
+                return false;
+            case 'y':
+                return i == 0 || !cons(i - 1);
+            default:
+                return true;
+        }
+    }
+
+    // Number of vowel-consonant sequences in b[0, j]: <c>(vc)^m<v>
+    private int m() {
+        int n = 0;
+        int i = 0;
+        while (true) {
+            if (i > j) return n;
+            if (!cons(i)) break;
+            i++;
+        }
+        i++;
+        while (true) {
+            while (true) {
+                if (i > j) return n;
+                if (cons(i)) break;
+                i++;
+            }
+            i++;
+            n++;
+            while (true) {
+                if (i > j) return n;
+                if (!cons(i)) break;
+                i++;
+            }
+            i++;
+        }
+    }
+
+    // True if b[0, j] contains a vowel
+    private boolean vowelInStem() {
+        for (int i = 0; i <= j; i++) {
+            if (!cons(i)) return true;
+        }
+        return false;
+    }
+
+    // True if b[i - 1, i] is a double consonant
+    private boolean doubleConsonant(int i) {
+        return i >= 1 && b[i] == b[i - 1] && cons(i);
+    }
+
+    // True if b[i - 2, i] is consonant-vowel-consonant and the last is not w, x or y: hop, not snow
+    private boolean cvc(int i) {
+        if (i < 2 || !cons(i) || cons(i - 1) || !cons(i - 2)) return false;
+        char ch = b[i];
+        return ch != 'w' && ch != 'x' && ch != 'y';
+    }
+
+    // True if b[0, k] ends with suffix, setting j to the end of the rest
+    private boolean ends(String suffix) {
+        int length = suffix.length();
+        int offset = k - length + 1;
+        if (offset < 0) return false;
+        for (int i = 0; i < length; i++) {
+            if (b[offset + i] != suffix.charAt(i)) return false;
+        }
+        j = k - length;
+        return true;
+    }
+
+    // Replaces b[j + 1, k] by s; s is never longer than the suffix it replaces
+    private void setTo(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            b[j + 1 + i] = s.charAt(i);
+        }
+        k = j + length;
+    }
+
+    private void replaceIfMeasured(String s) {
+        if (m() > 0) setTo(s);
+    }
+
+    // Plurals and -ed or -ing: caresses -> caress, ponies -> poni, agreed -> agree, hopping -> hop
+    private void step1ab() {
+        if (b[k] == 's') {
+            if (ends("sses")) {
+                k -= 2;
+            } else if (ends("ies")) {
+                setTo("i");
+            } else if (b[k - 1] != 's') {
+                k--;
+            }
+        }
+        if (ends("eed")) {
+            if (m() > 0) k--;
+        } else if ((ends("ed") || ends("ing")) && vowelInStem()) {
+            k = j;
+            if (ends("at")) {
+                setTo("ate");
+            } else if (ends("bl")) {
+                setTo("ble");
+            } else if (ends("iz")) {
+                setTo("ize");
+            } else if (doubleConsonant(k)) {
+                k--;
+                char ch = b[k];
+                if (ch == 'l' || ch == 's' || ch == 'z') k++;
+            } else if (m() == 1 && cvc(k)) {
+                j = k;
+                setTo("e");
+            }
+        }
+    }
+
+    // Terminal y to i when there is another vowel in the stem: happy -> happi
+    private void step1c() {
+        if (ends("y") && vowelInStem()) b[k] = 'i';
+    }
+
+    // Double suffixes to single ones: relational -> relate, digitizer -> digitize
+    private void step2() {
+        switch (b[k - 1]) {
+            case 'a':
+                if (ends("ational")) { replaceIfMeasured("ate"); break; }
+                if (ends("tional")) { replaceIfMeasured("tion"); break; }
+                break;
+            case 'c':
+                if (ends("enci")) { replaceIfMeasured("ence"); break; }
+                if (ends("anci")) { replaceIfMeasured("ance"); break; }
+                break;
+            case 'e':
+                if (ends("izer")) { replaceIfMeasured("ize"); break; }
+                break;
+            case 'l':
+                if (ends("bli")) { replaceIfMeasured("ble"); break; }
+                if (ends("alli")) { replaceIfMeasured("al"); break; }
+                if (ends("entli")) { replaceIfMeasured("ent"); break; }
+                if (ends("eli")) { replaceIfMeasured("e"); break; }
+                if (ends("ousli")) { replaceIfMeasured("ous"); break; }
+                break;
+            case 'o':
+                if (ends("ization")) { replaceIfMeasured("ize"); break; }
+                if (ends("ation")) { replaceIfMeasured("ate"); break; }
+                if (ends("ator")) { replaceIfMeasured("ate"); break; }
+                break;
+            case 's':
+                if (ends("alism")) { replaceIfMeasured("al"); break; }
+                if (ends("iveness")) { replaceIfMeasured("ive"); break; }
+                if (ends("fulness")) { replaceIfMeasured("ful"); break; }
+                if (ends("ousness")) { replaceIfMeasured("ous"); break; }
+                break;
+            case 't':
+                if (ends("aliti")) { replaceIfMeasured("al"); break; }
+                if (ends("iviti")) { replaceIfMeasured("ive"); break; }
+                if (ends("biliti")) { replaceIfMeasured("ble"); break; }
+                break;
+            case 'g':
+                if (ends("logi")) { replaceIfMeasured("log"); break; }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // -ic-, -full, -ness and similar: triplicate -> triplic, hopeful -> hope
+    private void step3() {
+        switch (b[k]) {
+            case 'e':
+                if (ends("icate")) { replaceIfMeasured("ic"); break; }
+                if (ends("ative")) { replaceIfMeasured(""); break; }
+                if (ends("alize")) { replaceIfMeasured("al"); break; }
+                break;
+            case 'i':
+                if (ends("iciti")) { replaceIfMeasured("ic"); break; }
+                break;
+            case 'l':
+                if (ends("ical")) { replaceIfMeasured("ic"); break; }
+                if (ends("ful")) { replaceIfMeasured(""); break; }
+                break;
+            case 's':
+                if (ends("ness")) { replaceIfMeasured(""); break; }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Drops -ant, -ence and similar in a stem with m > 1: adjustment -> adjust
+    private void step4() {
+        if (k < 1) return;
+        switch (b[k - 1]) {
+            case 'a':
+                if (ends("al")) break;
+                return;
+            case 'c':
+                if (ends("ance")) break;
+                if (ends("ence")) break;
+                return;
+            case 'e':
+                if (ends("er")) break;
+                return;
+            case 'i':
+                if (ends("ic")) break;
+                return;
+            case 'l':
+                if (ends("able")) break;
+                if (ends("ible")) break;
+                return;
+            case 'n':
+                if (ends("ant")) break;
+                if (ends("ement")) break;
+                if (ends("ment")) break;
+                if (ends("ent")) break;
+                return;
+            case 'o':
+                if (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) break;
+                if (ends("ou")) break;
+                return;
+            case 's':
+                if (ends("ism")) break;
+                return;
+            case 't':
+                if (ends("ate")) break;
+                if (ends("iti")) break;
+                return;
+            case 'u':
+                if (ends("ous")) break;
+                return;
+            case 'v':
+                if (ends("ive")) break;
+                return;
+            case 'z':
+                if (ends("ize")) break;
+                return;
+            default:
+                return;
+        }
+        if (m() > 1) k = j;
+    }
+
+    // Final -e and double l: probate -> probat, controll -> control
+    private void step5() {
+        j = k;
+        if (b[k] == 'e') {
+            int measure = m();
+            if (measure > 1 || (measure == 1 && !cvc(k - 1))) k--;
+        }
+        if (b[k] == 'l' && doubleConsonant(k) && m() > 1) k--;
+    }
+}
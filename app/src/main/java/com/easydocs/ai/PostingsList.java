@@ -0,0 +1,238 @@
+package com.easydocs.ai;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable postings of one term: (chunk id, term frequency) pairs in increasing chunk id
+ * order, stored as varints in a single byte[] with each chunk id delta-encoded against the
+ * previous one. Most deltas and frequencies fit in one byte, against 4+ bytes per int and
+ * ~16 bytes per boxed list slot for the object-based postings this replaces.
+ * The bytes live either in a heap byte[] or in a region of a mapped buffer outside the heap.
+ */
+final class PostingsList {
+    static final PostingsList EMPTY = new PostingsList(new byte[0], null, 0, 0, 0, -1);
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+    private final int size;
+    private final int lastChunkId;
+
+    private PostingsList(byte[] data, ByteBuffer buffer, int offset, int length, int size, int lastChunkId) {
+        this.data = data;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.size = size;
+        this.lastChunkId = lastChunkId;
+    }
+
+    /**
+     * Wraps an encoded block as written by writeTo(). The bytes are decoded once to validate
+     * them and find the last chunk id, so appends keep working after a reload.
+     */
+    static PostingsList fromEncoded(byte[] data, int size) {
+        return new PostingsList(data, null, 0, data.length, size, findLastChunkId(data, null, 0, data.length, size));
+    }
+
+    // Same as fromEncoded for a block left in place at [offset, offset + length) of buffer
+    static PostingsList fromEncoded(ByteBuffer buffer, int offset, int length, int size) {
+        return new PostingsList(null, buffer, offset, length, size, findLastChunkId(null, buffer, offset, length, size));
+    }
+
+    private static int findLastChunkId(byte[] data, ByteBuffer buffer, int offset, int length, int size) {
+        Cursor cursor = new Cursor(data, buffer, offset, length);
+        int count = 0;
+        int last = -1;
+        while (cursor.next()) {
+            last = cursor.chunkId();
+            count++;
+        }
+        if (count != size) {
+            throw new IllegalArgumentException("Postings block holds " + count + " entries, expected " + size);
+        }
+        return last;
+    }
+
+    // Document frequency of the term, including postings of deleted chunks
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int lastChunkId() {
+        return lastChunkId;
+    }
+
+    int encodedLength() {
+        return length;
+    }
+
+    // True if the encoded bytes are outside the Java heap
+    boolean isOffHeap() {
+        return buffer != null;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        if (data != null) {
+            out.write(data, offset, length);
+            return;
+        }
+        byte[] bytes = new byte[length];
+        copyTo(bytes);
+        out.write(bytes);
+    }
+
+    private void copyTo(byte[] target) {
+        if (data != null) {
+            System.arraycopy(data, offset, target, 0, length);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.get(target, 0, length);
+        }
+    }
+
+    Cursor cursor() {
+        return new Cursor(data, buffer, offset, length);
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    // Copy with one posting inserted in id order, for ids below lastChunkId that add() can't take
+    PostingsList withPosting(int chunkId, int termFrequency) {
+        Builder builder = EMPTY.toBuilder();
+        boolean inserted = false;
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            if (!inserted && chunkId < cursor.chunkId()) {
+                builder.add(chunkId, termFrequency);
+                inserted = true;
+            }
+            builder.add(cursor.chunkId(), cursor.termFrequency());
+        }
+        if (!inserted) {
+            builder.add(chunkId, termFrequency);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Forward-only decoder. Not thread-safe; each reader takes its own cursor.
+     */
+    static final class Cursor {
+        private final byte[] data;
+        private final ByteBuffer buffer;
+        private final int end;
+        private int position;
+        private int chunkId;
+        private int termFrequency;
+
+        private Cursor(byte[] data, ByteBuffer buffer, int offset, int length) {
+            this.data = data;
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        boolean next() {
+            if (position >= end) return false;
+            chunkId += readVarint();
+            termFrequency = readVarint();
+            return true;
+        }
+
+        int chunkId() {
+            return chunkId;
+        }
+
+        int termFrequency() {
+            return termFrequency;
+        }
+
+        private int readVarint() {
+            // Most gaps and frequencies are below 128 and take a single byte
+            if (position < end) {
+                byte first = byteAt(position);
+                if (first >= 0) {
+                    position++;
+                    return first;
+                }
+            }
+
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= end || shift > 28) {
+                    throw new IllegalStateException("Truncated postings block");
+                }
+                b = byteAt(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        // Absolute reads leave the shared buffer's position untouched
+        private byte byteAt(int index) {
+            return data != null ? data[index] : buffer.get(index);
+        }
+    }
+
+    /**
+     * Appends postings for chunks with ids above every id already in the list. Builders copy
+     * the source bytes, so the list they started from stays valid for concurrent readers.
+     */
+    static final class Builder {
+        private byte[] data;
+        private int length;
+        private int size;
+        private int lastChunkId;
+
+        private Builder(PostingsList source) {
+            this.data = new byte[Math.max(16, source.length + source.length / 4)];
+            source.copyTo(data);
+            this.length = source.length;
+            this.size = source.size;
+            this.lastChunkId = source.lastChunkId;
+        }
+
+        Builder add(int chunkId, int termFrequency) {
+            if (chunkId <= lastChunkId) {
+                throw new IllegalArgumentException("Chunk id " + chunkId + " is not above " + lastChunkId);
+            }
+            // The first id is stored as is, every later one as the gap from its predecessor
+            writeVarint(lastChunkId < 0 ? chunkId : chunkId - lastChunkId);
+            writeVarint(termFrequency);
+            lastChunkId = chunkId;
+            size++;
+            return this;
+        }
+
+        // Trims the buffer so published lists carry no spare capacity
+        PostingsList build() {
+            return new PostingsList(Arrays.copyOf(data, length), null, 0, length, size, lastChunkId);
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+}
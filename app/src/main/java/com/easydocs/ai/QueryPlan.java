@@ -0,0 +1,205 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Query-side work compiled once per question and shared by every chunk scored for it:
+ * normalized tokens, stemmed keywords, synonym expansion, question-type flags and a
+ * per-document cache of title similarity. Safe to read from parallel scoring threads.
+ */
+public class QueryPlan {
+    private final String query;
+    private final String lowerQuery;
+    private final String[] tokens;
+    // Vocabulary ids of tokens and of the exact-match words, NOT_FOUND for words no text has
+    private final int[] tokenIds;
+    private final int[] exactMatchIds;
+    private final SimpleNLP.TextFeatures features;
+    private final Set<String> expandedTerms;
+    // For each query keyword, how many distinct words areSynonyms would accept for it
+    private final int[] synonymReach;
+    private final int longTokenCount;
+    private final List<String> exactMatchPatterns;
+    private final boolean asksWhat;
+    private final boolean asksHow;
+    private final boolean asksWhy;
+    private final boolean asksWhen;
+    private final SimpleNLP nlpProcessor;
+    // Document frequencies of the index the query runs against, for TF-IDF
+    private final CorpusStats corpusStats;
+    // Terms the query words are part of or contain, null where SimpleNLP compares tokens directly
+    private final SimpleNLP.PartialMatches partialMatches;
+    private final Map<String, Double> titleSimilarityCache = new ConcurrentHashMap<>();
+
+    public QueryPlan(String query, SimpleNLP nlpProcessor) {
+        this(query, nlpProcessor, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param exactMatchStopWords words skipped when building the " word " exact-match patterns
+     */
+    public QueryPlan(String query, SimpleNLP nlpProcessor, Set<String> exactMatchStopWords) {
+        this(query, nlpProcessor, exactMatchStopWords, CorpusStats.EMPTY);
+    }
+
+    QueryPlan(String query, SimpleNLP nlpProcessor, Set<String> exactMatchStopWords, CorpusStats corpusStats) {
+        this.query = query;
+        this.corpusStats = corpusStats;
+        this.lowerQuery = query.toLowerCase();
+        // Split like the whitespace tokens of indexed text, so token ids line up with theirs
+        this.tokens = Tokenizer.splitWhitespace(lowerQuery);
+        this.nlpProcessor = nlpProcessor;
+        this.features = nlpProcessor.analyzeText(query);
+        this.partialMatches = nlpProcessor.resolvePartialMatches(features);
+        this.expandedTerms = nlpProcessor.expandSynonyms(features.getKeywords());
+
+        this.synonymReach = new int[features.getKeywords().size()];
+        int index = 0;
+        for (String keyword : features.getKeywords()) {
+            synonymReach[index++] = nlpProcessor.expandSynonyms(Collections.singleton(keyword)).size();
+        }
+
+        int longTokens = 0;
+        this.tokenIds = new int[tokens.length];
+        this.exactMatchPatterns = new ArrayList<>();
+        List<Integer> matchIds = new ArrayList<>();
+        for (int i = 0; i < tokens.length; i++) {
+            String word = tokens[i];
+            tokenIds[i] = nlpProcessor.lookupTerm(word);
+            if (word.length() > 3) longTokens++;
+            if (word.length() > 2 && !exactMatchStopWords.contains(word)) {
+                exactMatchPatterns.add(" " + word + " ");
+                matchIds.add(tokenIds[i]);
+            }
+        }
+        this.exactMatchIds = new int[matchIds.size()];
+        for (int i = 0; i < exactMatchIds.length; i++) {
+            exactMatchIds[i] = matchIds.get(i);
+        }
+
+        this.longTokenCount = longTokens;
+
+        this.asksWhat = lowerQuery.contains("what");
+        this.asksHow = lowerQuery.contains("how");
+        this.asksWhy = lowerQuery.contains("why");
+        this.asksWhen = lowerQuery.contains("when");
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getLowerQuery() {
+        return lowerQuery;
+    }
+
+    public SimpleNLP.TextFeatures getFeatures() {
+        return features;
+    }
+
+    CorpusStats getCorpusStats() {
+        return corpusStats;
+    }
+
+    SimpleNLP.PartialMatches getPartialMatches() {
+        return partialMatches;
+    }
+
+    // Whitespace tokens of the lowercased query
+    public String[] getTokens() {
+        return tokens;
+    }
+
+    public Set<String> getKeywords() {
+        return features.getKeywords();
+    }
+
+    // Stemmed keywords plus all of their synonyms
+    public Set<String> getExpandedTerms() {
+        return expandedTerms;
+    }
+
+    public List<String> getExactMatchPatterns() {
+        return exactMatchPatterns;
+    }
+
+    // Ids of getTokens(), for phrase matching against TokenPositions
+    int[] getTokenIds() {
+        return tokenIds;
+    }
+
+    // Ids of the words behind getExactMatchPatterns(), in the same order
+    int[] getExactMatchIds() {
+        return exactMatchIds;
+    }
+
+    public int getTokenCount() {
+        return tokens.length;
+    }
+
+    public boolean asksWhat() {
+        return asksWhat;
+    }
+
+    public boolean asksHow() {
+        return asksHow;
+    }
+
+    public boolean asksWhy() {
+        return asksWhy;
+    }
+
+    public boolean asksWhen() {
+        return asksWhen;
+    }
+
+    /**
+     * Upper bound of SimpleNLP.calculateSimilarity(getFeatures(), chunkFeatures) using only
+     * set sizes, so pruning can skip the full computation for chunks that cannot rank.
+     */
+    public double getSimilarityUpperBound(SimpleNLP.TextFeatures chunkFeatures) {
+        if (features.isEmpty() || chunkFeatures.isEmpty()) return 0.0;
+
+        int queryKeywords = features.getKeywords().size();
+        // Ids rather than keyword sets, which compact chunk features don't hold
+        int chunkKeywords = chunkFeatures.getKeywordIds().length;
+
+        double jaccardBound = 0.0;
+        double synonymBound = 0.0;
+        if (queryKeywords > 0 && chunkKeywords > 0) {
+            jaccardBound = (double) Math.min(queryKeywords, chunkKeywords) / Math.max(queryKeywords, chunkKeywords);
+
+            int possibleMatches = 0;
+            for (int reach : synonymReach) {
+                possibleMatches += Math.min(chunkKeywords, reach);
+            }
+            synonymBound = (double) possibleMatches / ((long) queryKeywords * chunkKeywords);
+        }
+
+        int minTokens = Math.min(tokens.length, chunkFeatures.getTokenCount());
+        double substringBound = minTokens > 0 ? (double) longTokenCount / minTokens : 0.0;
+
+        double tfIdfBound = features.getTermWeightNorm() > 0 && chunkFeatures.getTermWeightNorm() > 0 ? 1.0 : 0.0;
+
+        return jaccardBound * 0.3 + synonymBound * 0.3 + substringBound * 0.2 + tfIdfBound * 0.2;
+    }
+
+    /**
+     * Similarity between the query and a document name, computed once per document.
+     */
+    public double getTitleSimilarity(String documentName) {
+        if (documentName == null) return 0.0;
+
+        Double cached = titleSimilarityCache.get(documentName);
+        if (cached == null) {
+            cached = nlpProcessor.calculateSimilarity(features, nlpProcessor.analyzeText(documentName));
+            titleSimilarityCache.put(documentName, cached);
+        }
+        return cached;
+    }
+}
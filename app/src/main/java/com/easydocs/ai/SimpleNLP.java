@@ -14,62 +14,128 @@ import java.nio.file.Paths;
 
 public class SimpleNLP {
     private Set<String> stopWords;
-    private Map<String, Set<String>> synonyms;
+    // Stemmed synonym -> ids of every group it is listed in
+    private Map<String, Set<Integer>> synonymGroups;
+    // Stems in each group, by group id
+    private List<Set<String>> synonymGroupMembers;
+    // Stems listed in the same groups share a class; two classes overlap if they share a group
+    private boolean[][] synonymClassesOverlap;
+    // Synonym class by vocabulary id for ids below its length, NO_SYNONYM_CLASS for other terms
+    private int[] synonymClassByTermId;
+    private static final int NO_SYNONYM_CLASS = -1;
     private Map<String, DocumentContent> documentDatabase;
     private List<String> questionWords;
+    // Ids for keywords, so features can hold keyword sets as sorted int arrays; a store's
+    // analyzer shares its index's dictionary, so feature ids are also postings ids
+    private final TermDictionary vocabulary;
+    // Finds the vocabulary terms a query word is part of, for substring similarity
+    private final TrigramIndex termTrigrams;
+    // Stop words again, for lookups straight from a tokenizer's buffer
+    private final TermDictionary stopWordTable = new TermDictionary();
+    private final ThreadLocal<Tokenizer> tokenizers = new ThreadLocal<Tokenizer>() {
+        @Override
+        protected Tokenizer initialValue() {
+            return new Tokenizer();
+        }
+    };
+    // Distinct words seen across a typical library fit easily; collisions only cost a re-stem
+    private static final int STEM_CACHE_SIZE = 8192;
+    private final StemCache stemCache = new StemCache(STEM_CACHE_SIZE);
+    private final ThreadLocal<PorterStemmer> stemmers = new ThreadLocal<PorterStemmer>() {
+        @Override
+        protected PorterStemmer initialValue() {
+            return new PorterStemmer();
+        }
+    };
 
     public SimpleNLP() {
+        this(new TermDictionary());
+    }
+
+    // Analyzer whose keyword and token ids are those of vocabulary, which it interns into
+    SimpleNLP(TermDictionary vocabulary) {
+        this.vocabulary = vocabulary;
+        this.termTrigrams = new TrigramIndex(vocabulary);
         initializeStopWords();
         initializeSynonyms();
         initializeQuestionWords();
         documentDatabase = new HashMap<>();
     }
 
-    // Document content holder
+    // Document content holder. Sentences and paragraphs are kept as [start, end) ranges of the
+    // full text and only copied out when asked for.
     public static class DocumentContent {
+        private static final Pattern SENTENCE_BREAK = Pattern.compile("[.!?]+");
+        private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\n\n+");
+
         private String fileName;
         private String fullText;
-        private List<String> sentences;
-        private List<String> paragraphs;
+        private int[] sentenceRanges;
+        private int[] paragraphRanges;
         private Map<String, String> metadata;
 
         public DocumentContent(String fileName, String fullText) {
             this.fileName = fileName;
             this.fullText = fullText;
-            this.sentences = splitIntoSentences(fullText);
-            this.paragraphs = splitIntoParagraphs(fullText);
+            this.sentenceRanges = findRanges(fullText, SENTENCE_BREAK, 10);
+            this.paragraphRanges = findRanges(fullText, PARAGRAPH_BREAK, 20);
             this.metadata = new HashMap<>();
         }
 
-        private List<String> splitIntoSentences(String text) {
-            List<String> sentences = new ArrayList<>();
-            String[] splits = text.split("[.!?]+");
-            for (String sentence : splits) {
-                String trimmed = sentence.trim();
-                if (trimmed.length() > 10) {
-                    sentences.add(trimmed);
+        // Trimmed pieces of text between separators, longer than minLength, as start/end pairs
+        private static int[] findRanges(String text, Pattern separator, int minLength) {
+            int[] ranges = new int[16];
+            int count = 0;
+            Matcher matcher = separator.matcher(text);
+            int pieceStart = 0;
+            boolean more = true;
+
+            while (more) {
+                int pieceEnd;
+                if (matcher.find()) {
+                    pieceEnd = matcher.start();
+                } else {
+                    pieceEnd = text.length();
+                    more = false;
                 }
-            }
-            return sentences;
-        }
 
-        private List<String> splitIntoParagraphs(String text) {
-            List<String> paragraphs = new ArrayList<>();
-            String[] splits = text.split("\n\n+");
-            for (String paragraph : splits) {
-                String trimmed = paragraph.trim().replaceAll("\n", " ");
-                if (trimmed.length() > 20) {
-                    paragraphs.add(trimmed);
+                int start = pieceStart;
+                int end = pieceEnd;
+                while (start < end && text.charAt(start) <= ' ') start++;
+                while (end > start && text.charAt(end - 1) <= ' ') end--;
+                if (more) pieceStart = matcher.end();
+
+                if (end - start > minLength) {
+                    if (count + 2 > ranges.length) {
+                        ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                    }
+                    ranges[count++] = start;
+                    ranges[count++] = end;
                 }
             }
-            return paragraphs;
+            return Arrays.copyOf(ranges, count);
         }
 
         // Getters
         public String getFileName() { return fileName; }
         public String getFullText() { return fullText; }
-        public List<String> getSentences() { return sentences; }
-        public List<String> getParagraphs() { return paragraphs; }
+
+        public List<String> getSentences() {
+            List<String> sentences = new ArrayList<>(sentenceRanges.length / 2);
+            for (int i = 0; i < sentenceRanges.length; i += 2) {
+                sentences.add(fullText.substring(sentenceRanges[i], sentenceRanges[i + 1]));
+            }
+            return sentences;
+        }
+
+        public List<String> getParagraphs() {
+            List<String> paragraphs = new ArrayList<>(paragraphRanges.length / 2);
+            for (int i = 0; i < paragraphRanges.length; i += 2) {
+                paragraphs.add(fullText.substring(paragraphRanges[i], paragraphRanges[i + 1]).replaceAll("\n", " "));
+            }
+            return paragraphs;
+        }
+
         public Map<String, String> getMetadata() { return metadata; }
     }
 
@@ -99,6 +165,169 @@ public class SimpleNLP {
         }
     }
 
+    /**
+     * Query-independent text features, computed once and reused across similarity calls.
+     * Keywords are also kept as ascending ids of the analyzer's vocabulary with their TF-IDF
+     * weights in the same order, so two feature sets are compared by merging the arrays.
+     * compact() drops the text-derived strings and keeps only these ids, which is all scoring
+     * against a QueryPlan of the same vocabulary reads.
+     */
+    public static class TextFeatures {
+        private static final int[] NO_IDS = new int[0];
+        private static final double[] NO_WEIGHTS = new double[0];
+
+        private final boolean empty;
+        private final String lowerText;
+        private final String[] tokens;
+        private final Set<String> keywords;
+        private final Map<String, Integer> termFrequencies;
+        private final int keywordCount;
+        // Term frequency of each keyword among all keyword occurrences; IDF is applied when scoring
+        private final Map<String, Double> termWeights;
+        private final double termWeightNorm;
+        // Ids are only comparable between features of the same vocabulary
+        private final TermDictionary vocabulary;
+        private final int[] keywordIds;
+        // Occurrences of each keyword, in keyword id order
+        private final int[] keywordFrequencies;
+        private final double[] termWeightsById;
+        private final int tokenCount;
+        // Positions of the whitespace tokens, by vocabulary id
+        private final TokenPositions tokenPositions;
+        // Ascending synonym classes of the keywords and the number of keywords in each
+        private final int[] synonymClassIds;
+        private final int[] synonymClassCounts;
+
+        TextFeatures(boolean empty, String lowerText, String[] tokens, Set<String> keywords,
+                     Map<String, Integer> termFrequencies, int keywordCount,
+                     Map<String, Double> termWeights) {
+            this(empty, lowerText, tokens, keywords, termFrequencies, keywordCount, termWeights,
+                    null, NO_IDS, NO_IDS, NO_WEIGHTS, TokenPositions.EMPTY, NO_IDS, NO_IDS);
+        }
+
+        TextFeatures(boolean empty, String lowerText, String[] tokens, Set<String> keywords,
+                     Map<String, Integer> termFrequencies, int keywordCount,
+                     Map<String, Double> termWeights, TermDictionary vocabulary,
+                     int[] keywordIds, int[] keywordFrequencies, double[] termWeightsById,
+                     TokenPositions tokenPositions, int[] synonymClassIds, int[] synonymClassCounts) {
+            this.empty = empty;
+            this.lowerText = lowerText;
+            this.tokens = tokens;
+            this.keywords = keywords;
+            this.termFrequencies = termFrequencies;
+            this.keywordCount = keywordCount;
+            this.termWeights = termWeights;
+            this.vocabulary = vocabulary;
+            this.keywordIds = keywordIds;
+            this.keywordFrequencies = keywordFrequencies;
+            this.termWeightsById = termWeightsById;
+            this.tokenCount = tokens.length;
+            this.tokenPositions = tokenPositions;
+            this.synonymClassIds = synonymClassIds;
+            this.synonymClassCounts = synonymClassCounts;
+
+            double norm = 0.0;
+            for (double weight : termWeights.values()) {
+                norm += weight * weight;
+            }
+            this.termWeightNorm = norm;
+        }
+
+        // The id data of source without its text, tokens and keyword maps
+        private TextFeatures(TextFeatures source) {
+            this.empty = source.empty;
+            this.lowerText = null;
+            this.tokens = null;
+            this.keywords = Collections.emptySet();
+            this.termFrequencies = Collections.emptyMap();
+            this.keywordCount = source.keywordCount;
+            this.termWeights = Collections.emptyMap();
+            this.termWeightNorm = source.termWeightNorm;
+            this.vocabulary = source.vocabulary;
+            this.keywordIds = source.keywordIds;
+            this.keywordFrequencies = source.keywordFrequencies;
+            this.termWeightsById = source.termWeightsById;
+            this.tokenCount = source.tokenCount;
+            this.tokenPositions = source.tokenPositions;
+            this.synonymClassIds = source.synonymClassIds;
+            this.synonymClassCounts = source.synonymClassCounts;
+        }
+
+        /**
+         * These features with only their ids, frequencies and counts, sharing the arrays.
+         * getLowerText and getTokens return null and the keyword maps are empty, so they are
+         * only compared with features of the same vocabulary; use getKeywordIds and
+         * getTokenCount for sizes.
+         */
+        TextFeatures compact() {
+            return isCompact() ? this : new TextFeatures(this);
+        }
+
+        boolean isCompact() {
+            return tokens == null;
+        }
+
+        public boolean isEmpty() { return empty; }
+        public String getLowerText() { return lowerText; }
+        public String[] getTokens() { return tokens; }
+        public Set<String> getKeywords() { return keywords; }
+        public Map<String, Integer> getTermFrequencies() { return termFrequencies; }
+        public int getKeywordCount() { return keywordCount; }
+        public Map<String, Double> getTermWeights() { return termWeights; }
+        public double getTermWeightNorm() { return termWeightNorm; }
+
+        // Ascending keyword ids, negative for keywords not in the vocabulary; shared, not to be modified
+        int[] getKeywordIds() { return keywordIds; }
+        int[] getKeywordFrequencies() { return keywordFrequencies; }
+        // Number of whitespace tokens, also known for compact features
+        int getTokenCount() { return tokenCount; }
+        // Term weights in keyword id order
+        double[] getTermWeightsById() { return termWeightsById; }
+        TokenPositions getTokenPositions() { return tokenPositions; }
+        int[] getSynonymClassIds() { return synonymClassIds; }
+        int[] getSynonymClassCounts() { return synonymClassCounts; }
+
+        /**
+         * True if both have keyword ids from the same analyzer that can be merged. Negative ids
+         * are local to one text, so at least one side must have none for equal ids to mean
+         * equal keywords.
+         */
+        boolean sharesVocabulary(TextFeatures other) {
+            return vocabulary != null && vocabulary == other.vocabulary
+                    && (!hasUnknownKeywords() || !other.hasUnknownKeywords());
+        }
+
+        private boolean hasUnknownKeywords() {
+            return keywordIds.length > 0 && keywordIds[0] < 0;
+        }
+
+        // Rough heap footprint, for memory reporting only
+        public long estimateHeapBytes() {
+            if (isCompact()) return estimateIdBytes();
+
+            long bytes = estimateStringBytes(lowerText.length()) + 16 + 4L * tokens.length;
+            for (String token : tokens) {
+                bytes += estimateStringBytes(token.length());
+            }
+            // Map entry plus boxed value per keyword, in both maps
+            for (String keyword : termFrequencies.keySet()) {
+                bytes += estimateStringBytes(keyword.length()) + 48;
+            }
+            bytes += 48L * termWeights.size();
+            return bytes + estimateIdBytes();
+        }
+
+        // Share of estimateHeapBytes that compact() keeps
+        long estimateIdBytes() {
+            return 64 + 16L * keywordIds.length + 8L * synonymClassIds.length + tokenPositions.estimateHeapBytes();
+        }
+    }
+
+    // Object header, fields and backing array of a String with length chars
+    static long estimateStringBytes(int length) {
+        return 40 + 2L * length;
+    }
+
     private static class ScoredSegment {
         String text;
         double score;
@@ -129,10 +358,14 @@ public class SimpleNLP {
                 "why", "how", "all", "any", "both", "each", "few", "more", "most", "other", "some",
                 "such", "no", "nor", "not", "only", "own", "same", "so", "than", "too", "very", "just"
         ));
+        for (String stopWord : stopWords) {
+            stopWordTable.intern(stopWord);
+        }
     }
 
     private void initializeSynonyms() {
-        synonyms = new HashMap<>();
+        synonymGroups = new HashMap<>();
+        synonymGroupMembers = new ArrayList<>();
         addSynonymGroup("big", "large", "huge", "enormous", "massive", "giant", "vast", "immense");
         addSynonymGroup("small", "little", "tiny", "minute", "compact", "mini", "petite");
         addSynonymGroup("good", "excellent", "great", "wonderful", "fantastic", "amazing", "superb", "outstanding");
@@ -152,6 +385,35 @@ public class SimpleNLP {
         addSynonymGroup("result", "outcome", "consequence", "effect", "conclusion", "finding");
         addSynonymGroup("problem", "issue", "challenge", "difficulty", "obstacle", "trouble");
         addSynonymGroup("solution", "answer", "resolution", "fix", "remedy", "approach");
+
+        // One class per distinct set of groups, interned now so a keyword's class is found by
+        // its id while texts are analyzed
+        Map<Set<Integer>, Integer> classIds = new HashMap<>();
+        List<Set<Integer>> classGroups = new ArrayList<>();
+        int[] classByTermId = new int[0];
+        for (Map.Entry<String, Set<Integer>> entry : synonymGroups.entrySet()) {
+            Integer classId = classIds.get(entry.getValue());
+            if (classId == null) {
+                classId = classGroups.size();
+                classIds.put(entry.getValue(), classId);
+                classGroups.add(entry.getValue());
+            }
+            int id = termId(entry.getKey());
+            if (id >= classByTermId.length) {
+                int oldLength = classByTermId.length;
+                classByTermId = Arrays.copyOf(classByTermId, Math.max(id + 1, 2 * oldLength));
+                Arrays.fill(classByTermId, oldLength, classByTermId.length, NO_SYNONYM_CLASS);
+            }
+            classByTermId[id] = classId;
+        }
+        boolean[][] classesOverlap = new boolean[classGroups.size()][classGroups.size()];
+        for (int a = 0; a < classGroups.size(); a++) {
+            for (int b = 0; b < classGroups.size(); b++) {
+                classesOverlap[a][b] = !Collections.disjoint(classGroups.get(a), classGroups.get(b));
+            }
+        }
+        synonymClassesOverlap = classesOverlap;
+        synonymClassByTermId = classByTermId;
     }
 
     private void initializeQuestionWords() {
@@ -162,10 +424,21 @@ public class SimpleNLP {
         );
     }
 
+    /**
+     * Adds the words as one group under their stems, since they are compared with stemmed
+     * keywords. A stem listed in several groups keeps the ids of all of them, so it matches
+     * the members of each without those groups matching one another.
+     */
     private void addSynonymGroup(String... words) {
-        Set<String> synonymSet = new HashSet<>(Arrays.asList(words));
+        Set<String> group = new HashSet<>();
         for (String word : words) {
-            synonyms.put(word.toLowerCase(), synonymSet);
+            group.addAll(extractKeywordList(word));
+        }
+
+        int groupId = synonymGroupMembers.size();
+        synonymGroupMembers.add(group);
+        for (String stem : group) {
+            synonymGroups.computeIfAbsent(stem, key -> new HashSet<>()).add(groupId);
         }
     }
 
@@ -176,17 +449,219 @@ public class SimpleNLP {
             return 0.0;
         }
 
-        Set<String> words1 = extractKeywords(text1.toLowerCase());
-        Set<String> words2 = extractKeywords(text2.toLowerCase());
+        return calculateSimilarity(analyzeText(text1), analyzeText(text2));
+    }
 
-        double basicSimilarity = calculateJaccardSimilarity(words1, words2);
-        double synonymSimilarity = calculateSynonymSimilarity(words1, words2);
-        double substringSimilarity = calculateSubstringSimilarity(text1, text2);
-        double tfIdfSimilarity = calculateTfIdfSimilarity(words1, words2, text1, text2);
+    public double calculateSimilarity(String text1, TextFeatures features2) {
+        if (text1 == null || text1.trim().isEmpty() || features2 == null || features2.isEmpty()) {
+            return 0.0;
+        }
+
+        return calculateSimilarity(analyzeText(text1), features2);
+    }
+
+    public double calculateSimilarity(TextFeatures features1, TextFeatures features2) {
+        return calculateSimilarity(features1, features2, CorpusStats.EMPTY, null);
+    }
+
+    /**
+     * Same as calculateSimilarity(plan.getFeatures(), chunkFeatures), using what the plan
+     * resolved once per query: the corpus statistics for TF-IDF and the terms its words are
+     * part of for substring similarity.
+     */
+    double calculateSimilarity(QueryPlan plan, TextFeatures chunkFeatures) {
+        return calculateSimilarity(plan.getFeatures(), chunkFeatures, plan.getCorpusStats(), plan.getPartialMatches());
+    }
+
+    private double calculateSimilarity(TextFeatures features1, TextFeatures features2, CorpusStats corpusStats,
+                                       PartialMatches partialMatches) {
+        if (features1.isEmpty() || features2.isEmpty()) {
+            return 0.0;
+        }
+
+        Set<String> words1 = features1.getKeywords();
+        Set<String> words2 = features2.getKeywords();
+
+        double basicSimilarity = features1.sharesVocabulary(features2)
+                ? jaccard(features1.getKeywordIds(), features2.getKeywordIds())
+                : calculateJaccardSimilarity(words1, words2);
+        double synonymSimilarity = features1.sharesVocabulary(features2)
+                ? calculateSynonymSimilarity(features1, features2)
+                : calculateSynonymSimilarity(words1, words2);
+        double substringSimilarity = partialMatches != null && partialMatches.appliesTo(features2)
+                ? partialMatches.substringSimilarity(features2)
+                : calculateSubstringSimilarity(features1.getTokens(), features2.getTokens());
+        double tfIdfSimilarity = calculateTfIdfSimilarity(features1, features2, corpusStats);
 
         return (basicSimilarity * 0.3 + synonymSimilarity * 0.3 + substringSimilarity * 0.2 + tfIdfSimilarity * 0.2);
     }
 
+    /**
+     * Runs all query-independent text processing once: lowercasing, whitespace tokens with
+     * their positions, stemmed keywords with their frequencies and term frequency weights.
+     * Only looks terms up, so analyzing queries and titles never grows the vocabulary; words
+     * no indexed text contained get negative ids local to the result.
+     */
+    public TextFeatures analyzeText(String text) {
+        return analyzeText(text, false);
+    }
+
+    // Same as analyzeText for document text, adding its terms to the vocabulary
+    TextFeatures indexText(String text) {
+        return analyzeText(text, true);
+    }
+
+    private TextFeatures analyzeText(String text, boolean intern) {
+        if (text == null || text.trim().isEmpty()) {
+            return new TextFeatures(true, "", new String[0], Collections.<String>emptySet(),
+                    Collections.<String, Integer>emptyMap(), 0, Collections.<String, Double>emptyMap());
+        }
+
+        String lowerText = text.toLowerCase();
+
+        // Keyword ids in text order; known keywords are resolved without creating a String
+        Tokenizer tokenizer = tokenizers.get();
+        tokenizer.reset(lowerText);
+        LocalTerms unknownTerms = intern ? null : new LocalTerms();
+        int[] occurrences = new int[16];
+        int keywordCount = 0;
+        while (nextKeyword(tokenizer)) {
+            int id = vocabulary.lookup(tokenizer.buffer(), tokenizer.length());
+            if (id == TermDictionary.NOT_FOUND) {
+                id = intern ? vocabulary.intern(tokenizer.word()) : unknownTerms.id(tokenizer.word());
+            }
+            if (keywordCount == occurrences.length) {
+                occurrences = Arrays.copyOf(occurrences, keywordCount * 2);
+            }
+            occurrences[keywordCount++] = id;
+        }
+
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        for (int i = 0; i < keywordCount; i++) {
+            termFrequencies.merge(term(occurrences[i], unknownTerms), 1, Integer::sum);
+        }
+        Set<String> keywords = termFrequencies.keySet();
+
+        String[] tokens = Tokenizer.splitWhitespace(lowerText);
+        int[] tokenIds = new int[tokens.length];
+        for (int position = 0; position < tokens.length; position++) {
+            tokenIds[position] = intern ? termId(tokens[position]) : lookupTerm(tokens[position], unknownTerms);
+        }
+        TokenPositions tokenPositions = TokenPositions.of(tokenIds);
+
+        int[] keywordIds = new int[keywords.size()];
+        int index = 0;
+        for (String keyword : keywords) {
+            keywordIds[index++] = intern ? vocabulary.lookup(keyword) : lookupTerm(keyword, unknownTerms);
+        }
+        Arrays.sort(keywordIds);
+
+        Map<String, Double> termWeights = termWeights(termFrequencies, keywordCount);
+        int[] keywordFrequencies = new int[keywordIds.length];
+        double[] termWeightsById = new double[keywordIds.length];
+        for (int i = 0; i < keywordIds.length; i++) {
+            String keyword = term(keywordIds[i], unknownTerms);
+            keywordFrequencies[i] = termFrequencies.get(keyword);
+            termWeightsById[i] = termWeights.get(keyword);
+        }
+
+        // Synonym classes of the keywords with how many keywords fall in each, ascending by class
+        int[] classIds = new int[keywordIds.length];
+        int groupedCount = 0;
+        for (int keywordId : keywordIds) {
+            int synonymClass = synonymClassOf(keywordId);
+            if (synonymClass != NO_SYNONYM_CLASS) classIds[groupedCount++] = synonymClass;
+        }
+        Arrays.sort(classIds, 0, groupedCount);
+        int[] synonymClassIds = new int[groupedCount];
+        int[] synonymClassCounts = new int[groupedCount];
+        int distinctClasses = 0;
+        for (int i = 0; i < groupedCount; i++) {
+            if (distinctClasses > 0 && synonymClassIds[distinctClasses - 1] == classIds[i]) {
+                synonymClassCounts[distinctClasses - 1]++;
+            } else {
+                synonymClassIds[distinctClasses] = classIds[i];
+                synonymClassCounts[distinctClasses++] = 1;
+            }
+        }
+
+        return new TextFeatures(false, lowerText, tokens, keywords, termFrequencies,
+                keywordCount, termWeights, vocabulary, keywordIds, keywordFrequencies, termWeightsById, tokenPositions,
+                Arrays.copyOf(synonymClassIds, distinctClasses), Arrays.copyOf(synonymClassCounts, distinctClasses));
+    }
+
+    /**
+     * Ids below NOT_FOUND for the terms of one text that are not in the vocabulary, so
+     * analyzing queries and titles does not intern them. Never equal to a vocabulary id.
+     */
+    private static final class LocalTerms {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> terms = new ArrayList<>();
+
+        int id(String term) {
+            Integer id = ids.get(term);
+            if (id == null) {
+                id = TermDictionary.NOT_FOUND - 1 - terms.size();
+                ids.put(term, id);
+                terms.add(term);
+            }
+            return id;
+        }
+
+        String term(int id) {
+            return terms.get(TermDictionary.NOT_FOUND - 1 - id);
+        }
+    }
+
+    private String term(int id, LocalTerms unknownTerms) {
+        return id >= 0 ? vocabulary.term(id) : unknownTerms.term(id);
+    }
+
+    private int lookupTerm(String term, LocalTerms unknownTerms) {
+        int id = vocabulary.lookup(term);
+        return id != TermDictionary.NOT_FOUND ? id : unknownTerms.id(term);
+    }
+
+    // Vocabulary id of a keyword or token, assigning one if it is new
+    private int termId(String term) {
+        int id = vocabulary.lookup(term);
+        return id != TermDictionary.NOT_FOUND ? id : vocabulary.intern(term);
+    }
+
+    // Vocabulary id of a keyword or token, or TermDictionary.NOT_FOUND if no text contained it
+    int lookupTerm(String term) {
+        return vocabulary.lookup(term);
+    }
+
+    // ==================== SORTED KEYWORD ID SETS ====================
+
+    // Number of ids in both ascending arrays, by a linear merge
+    static int intersectionSize(int[] ids1, int[] ids2) {
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < ids1.length && j < ids2.length) {
+            int a = ids1[i];
+            int b = ids2[j];
+            if (a == b) {
+                common++;
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common;
+    }
+
+    static double jaccard(int[] ids1, int[] ids2) {
+        int common = intersectionSize(ids1, ids2);
+        int union = ids1.length + ids2.length - common;
+        return union == 0 ? 0.0 : (double) common / union;
+    }
+
     public boolean isRelevant(String query, String text) {
         return calculateSimilarity(query, text) > 0.15;
     }
@@ -196,7 +671,7 @@ public class SimpleNLP {
         String[] sentences = text.split("[.!?]+");
 
         for (String sentence : sentences) {
-            String[] words = sentence.trim().split("\\s+");
+            String[] words = Tokenizer.splitWhitespace(sentence.trim());
             if (words.length >= 2 && words.length <= 5) {
                 StringBuilder phrase = new StringBuilder();
                 boolean hasImportantWord = false;
@@ -549,7 +1024,7 @@ public class SimpleNLP {
         double basicSimilarity = calculateJaccardSimilarity(words1, words2);
         double synonymSimilarity = calculateSynonymSimilarity(words1, words2);
         double substringSimilarity = calculateSubstringSimilarity(text1, text2);
-        double tfIdfSimilarity = calculateTfIdfSimilarity(words1, words2, text1, text2);
+        double tfIdfSimilarity = calculateTfIdfSimilarity(text1, text2);
         double questionBoost = calculateQuestionRelevanceBoost(text1, text2);
 
         return (basicSimilarity * 0.25 + synonymSimilarity * 0.25 +
@@ -571,41 +1046,225 @@ public class SimpleNLP {
         return Math.min(boost, 0.3);
     }
 
+    // |A & B| / |A | B| with |A | B| = |A| + |B| - |A & B|, so no union set is built
     private double calculateJaccardSimilarity(Set<String> words1, Set<String> words2) {
-        Set<String> intersection = new HashSet<>(words1);
-        intersection.retainAll(words2);
+        int common = intersectionSize(words1, words2);
+        int union = words1.size() + words2.size() - common;
 
-        Set<String> union = new HashSet<>(words1);
-        union.addAll(words2);
+        if (union == 0) return 0.0;
+        return (double) common / union;
+    }
 
-        if (union.isEmpty()) return 0.0;
-        return (double) intersection.size() / union.size();
+    private static int intersectionSize(Set<String> words1, Set<String> words2) {
+        Set<String> smaller = words1.size() <= words2.size() ? words1 : words2;
+        Set<String> larger = smaller == words1 ? words2 : words1;
+        int common = 0;
+        for (String word : smaller) {
+            if (larger.contains(word)) common++;
+        }
+        return common;
     }
 
+    /**
+     * Share of keyword pairs that are the same word or synonyms. A pair matches exactly when
+     * the words' synonym classes overlap or they are the same ungrouped word, so the count is
+     * the product of the two texts' keyword counts over each pair of overlapping classes plus
+     * their common ungrouped keywords.
+     */
     private double calculateSynonymSimilarity(Set<String> words1, Set<String> words2) {
-        int synonymMatches = 0;
-        int totalComparisons = 0;
+        long totalComparisons = (long) words1.size() * words2.size();
+        if (totalComparisons == 0) return 0.0;
 
-        for (String word1 : words1) {
-            for (String word2 : words2) {
-                totalComparisons++;
-                if (areSynonyms(word1, word2)) {
-                    synonymMatches++;
+        Map<Integer, Integer> classCounts = new HashMap<>();
+        for (String word : words2) {
+            int synonymClass = synonymClassOf(vocabulary.lookup(word));
+            if (synonymClass != NO_SYNONYM_CLASS) {
+                classCounts.merge(synonymClass, 1, Integer::sum);
+            }
+        }
+
+        long synonymMatches = 0;
+        for (String word : words1) {
+            int synonymClass = synonymClassOf(vocabulary.lookup(word));
+            if (synonymClass == NO_SYNONYM_CLASS) {
+                if (words2.contains(word)) synonymMatches++;
+            } else {
+                for (Map.Entry<Integer, Integer> entry : classCounts.entrySet()) {
+                    if (synonymClassesOverlap[synonymClass][entry.getKey()]) synonymMatches += entry.getValue();
                 }
             }
         }
+        return (double) synonymMatches / totalComparisons;
+    }
 
+    // Same as calculateSynonymSimilarity over keywords, from the precomputed class counts and id arrays
+    private double calculateSynonymSimilarity(TextFeatures features1, TextFeatures features2) {
+        long totalComparisons = (long) features1.getKeywordIds().length * features2.getKeywordIds().length;
         if (totalComparisons == 0) return 0.0;
+
+        int[] classes1 = features1.getSynonymClassIds();
+        int[] counts1 = features1.getSynonymClassCounts();
+        int[] classes2 = features2.getSynonymClassIds();
+        int[] counts2 = features2.getSynonymClassCounts();
+        long synonymMatches = 0;
+        // A text's keywords fall in few classes, so every pair is checked
+        for (int i = 0; i < classes1.length; i++) {
+            boolean[] overlapping = synonymClassesOverlap[classes1[i]];
+            for (int j = 0; j < classes2.length; j++) {
+                if (overlapping[classes2[j]]) synonymMatches += (long) counts1[i] * counts2[j];
+            }
+        }
+
+        int[] ids1 = features1.getKeywordIds();
+        int[] ids2 = features2.getKeywordIds();
+        int i = 0;
+        int j = 0;
+        while (i < ids1.length && j < ids2.length) {
+            if (ids1[i] == ids2[j]) {
+                if (synonymClassOf(ids1[i]) == NO_SYNONYM_CLASS) synonymMatches++;
+                i++;
+                j++;
+            } else if (ids1[i] < ids2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
         return (double) synonymMatches / totalComparisons;
     }
 
+    // Synonym stems are interned up front, so terms outside the vocabulary have no class
+    private int synonymClassOf(int termId) {
+        return termId >= 0 && termId < synonymClassByTermId.length ? synonymClassByTermId[termId] : NO_SYNONYM_CLASS;
+    }
+
+    /**
+     * Resolves, for the words of features that substring similarity compares, every
+     * vocabulary term that contains one of them or is contained in one: the first through the
+     * trigram index, the second by looking up the word's substrings. Null if features has no
+     * vocabulary ids or too many such words to track in a bit mask.
+     */
+    PartialMatches resolvePartialMatches(TextFeatures features) {
+        if (features.isEmpty() || features.vocabulary != vocabulary) return null;
+
+        Map<String, Integer> occurrences = new LinkedHashMap<>();
+        for (String token : features.getTokens()) {
+            if (token.length() > 3) occurrences.merge(token, 1, Integer::sum);
+        }
+        if (occurrences.size() > Long.SIZE) return null;
+
+        String[] words = occurrences.keySet().toArray(new String[0]);
+        int[] counts = new int[words.length];
+        // Terms interned later are compared directly when a chunk has them
+        int coveredSize = vocabulary.size();
+        Map<Integer, Long> masks = new HashMap<>();
+        for (int k = 0; k < words.length; k++) {
+            String word = words[k];
+            counts[k] = occurrences.get(word);
+            long bit = 1L << k;
+            for (int id : termTrigrams.containing(word, coveredSize)) {
+                masks.merge(id, bit, (a, b) -> a | b);
+            }
+            for (int start = 0; start <= word.length(); start++) {
+                for (int end = start; end <= word.length(); end++) {
+                    int id = vocabulary.lookup(word.substring(start, end));
+                    if (id != TermDictionary.NOT_FOUND && id < coveredSize) {
+                        masks.merge(id, bit, (a, b) -> a | b);
+                    }
+                }
+            }
+        }
+
+        int[] termIds = new int[masks.size()];
+        int index = 0;
+        for (int id : masks.keySet()) {
+            termIds[index++] = id;
+        }
+        Arrays.sort(termIds);
+        long[] termMasks = new long[termIds.length];
+        for (int i = 0; i < termIds.length; i++) {
+            termMasks[i] = masks.get(termIds[i]);
+        }
+        return new PartialMatches(vocabulary, features.getTokens().length, words, counts, coveredSize,
+                termIds, termMasks);
+    }
+
+    /**
+     * The query side of substring similarity, resolved once per query: the vocabulary terms
+     * that match each long query word as part of a word or the reverse, as a bit mask of the
+     * words per term id. Scoring a chunk is then a merge of its distinct token ids with these.
+     */
+    static final class PartialMatches {
+        private final TermDictionary vocabulary;
+        private final int tokenCount;
+        private final String[] words;
+        // Occurrences of each word among the query tokens
+        private final int[] counts;
+        // Terms with ids from coveredSize on were interned after resolving
+        private final int coveredSize;
+        private final int[] termIds;
+        private final long[] termMasks;
+
+        private PartialMatches(TermDictionary vocabulary, int tokenCount, String[] words, int[] counts,
+                               int coveredSize, int[] termIds, long[] termMasks) {
+            this.vocabulary = vocabulary;
+            this.tokenCount = tokenCount;
+            this.words = words;
+            this.counts = counts;
+            this.coveredSize = coveredSize;
+            this.termIds = termIds;
+            this.termMasks = termMasks;
+        }
+
+        // The chunk's token ids must all be vocabulary ids, as they are for indexed text
+        boolean appliesTo(TextFeatures chunkFeatures) {
+            int[] chunkIds = chunkFeatures.getTokenPositions().ids();
+            return chunkFeatures.vocabulary == vocabulary && (chunkIds.length == 0 || chunkIds[0] >= 0);
+        }
+
+        // Same result as calculateSubstringSimilarity(query tokens, chunk tokens)
+        double substringSimilarity(TextFeatures chunkFeatures) {
+            int minTokens = Math.min(tokenCount, chunkFeatures.getTokenCount());
+            if (minTokens == 0 || words.length == 0) return 0.0;
+
+            long all = words.length == Long.SIZE ? -1L : (1L << words.length) - 1;
+            long matched = 0;
+            int[] chunkIds = chunkFeatures.getTokenPositions().ids();
+            int i = 0;
+            int j = 0;
+            while (i < chunkIds.length && chunkIds[i] < coveredSize && j < termIds.length && matched != all) {
+                if (chunkIds[i] == termIds[j]) {
+                    matched |= termMasks[j++];
+                    i++;
+                } else if (chunkIds[i] < termIds[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            while (i < chunkIds.length && chunkIds[i] < coveredSize) i++;
+            for (; i < chunkIds.length && matched != all; i++) {
+                String term = vocabulary.term(chunkIds[i]);
+                for (int k = 0; k < words.length; k++) {
+                    if (term.contains(words[k]) || words[k].contains(term)) matched |= 1L << k;
+                }
+            }
+
+            int matches = 0;
+            for (int k = 0; k < words.length; k++) {
+                if ((matched & (1L << k)) != 0) matches += counts[k];
+            }
+            return (double) matches / minTokens;
+        }
+    }
+
     private double calculateSubstringSimilarity(String text1, String text2) {
-        String lower1 = text1.toLowerCase();
-        String lower2 = text2.toLowerCase();
+        return calculateSubstringSimilarity(Tokenizer.splitWhitespace(text1.toLowerCase()),
+                Tokenizer.splitWhitespace(text2.toLowerCase()));
+    }
 
+    private double calculateSubstringSimilarity(String[] words1, String[] words2) {
         int matches = 0;
-        String[] words1 = lower1.split("\\s+");
-        String[] words2 = lower2.split("\\s+");
 
         for (String word1 : words1) {
             if (word1.length() > 3) {
@@ -622,119 +1281,188 @@ public class SimpleNLP {
                 (double) matches / Math.min(words1.length, words2.length) : 0.0;
     }
 
-    private double calculateTfIdfSimilarity(Set<String> words1, Set<String> words2, String text1, String text2) {
-        Map<String, Double> tfidf1 = calculateSimpleTfIdf(words1, text1);
-        Map<String, Double> tfidf2 = calculateSimpleTfIdf(words2, text2);
+    // Outside a corpus every keyword has the same IDF, which cancels out of the cosine
+    private double calculateTfIdfSimilarity(String text1, String text2) {
+        Map<String, Double> weights1 = termWeights(text1.toLowerCase());
+        Map<String, Double> weights2 = termWeights(text2.toLowerCase());
+        return cosine(weights1, norm(weights1.values()), weights2, norm(weights2.values()));
+    }
 
-        double dotProduct = 0.0;
+    /**
+     * Cosine of the TF-IDF vectors, IDF coming from corpusStats. Term frequencies are
+     * precomputed per text, so this is one merge over the sorted keyword ids plus a pass over
+     * each text's keywords for its norm: O(k) for k keywords.
+     */
+    private double calculateTfIdfSimilarity(TextFeatures features1, TextFeatures features2, CorpusStats corpusStats) {
+        if (features1.getTermWeightNorm() == 0.0 || features2.getTermWeightNorm() == 0.0) return 0.0;
+        if (!features1.sharesVocabulary(features2)) {
+            return cosine(features1.getTermWeights(), features1.getTermWeightNorm(),
+                    features2.getTermWeights(), features2.getTermWeightNorm());
+        }
+        return tfIdfCosine(features1.getKeywordIds(), features1.getTermWeightsById(),
+                features2.getKeywordIds(), features2.getTermWeightsById(), corpusStats);
+    }
+
+    // TF-IDF cosine of two ascending id arrays with aligned term frequencies
+    static double tfIdfCosine(int[] ids1, double[] weights1, int[] ids2, double[] weights2, CorpusStats corpusStats) {
         double norm1 = 0.0;
+        for (int i = 0; i < ids1.length; i++) {
+            double weight = weights1[i] * corpusStats.idf(ids1[i]);
+            norm1 += weight * weight;
+        }
         double norm2 = 0.0;
+        for (int j = 0; j < ids2.length; j++) {
+            double weight = weights2[j] * corpusStats.idf(ids2[j]);
+            norm2 += weight * weight;
+        }
+        if (norm1 == 0.0 || norm2 == 0.0) return 0.0;
 
-        Set<String> allWords = new HashSet<>(words1);
-        allWords.addAll(words2);
+        double dotProduct = 0.0;
+        int i = 0;
+        int j = 0;
+        while (i < ids1.length && j < ids2.length) {
+            if (ids1[i] == ids2[j]) {
+                double idf = corpusStats.idf(ids1[i]);
+                dotProduct += weights1[i++] * weights2[j++] * idf * idf;
+            } else if (ids1[i] < ids2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
 
-        for (String word : allWords) {
-            double tf1 = tfidf1.getOrDefault(word, 0.0);
-            double tf2 = tfidf2.getOrDefault(word, 0.0);
+    // Cosine of two weight vectors given their squared norms
+    private static double cosine(Map<String, Double> weights1, double norm1, Map<String, Double> weights2, double norm2) {
+        if (norm1 == 0.0 || norm2 == 0.0) return 0.0;
 
-            dotProduct += tf1 * tf2;
-            norm1 += tf1 * tf1;
-            norm2 += tf2 * tf2;
+        Map<String, Double> smaller = weights1;
+        Map<String, Double> larger = weights2;
+        if (smaller.size() > larger.size()) {
+            Map<String, Double> swap = smaller;
+            smaller = larger;
+            larger = swap;
+        }
+
+        double dotProduct = 0.0;
+        for (Map.Entry<String, Double> entry : smaller.entrySet()) {
+            Double other = larger.get(entry.getKey());
+            if (other != null) {
+                dotProduct += entry.getValue() * other;
+            }
         }
 
-        if (norm1 == 0.0 || norm2 == 0.0) return 0.0;
         return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
     }
 
-    private Map<String, Double> calculateSimpleTfIdf(Set<String> words, String text) {
-        Map<String, Double> tfidf = new HashMap<>();
-        String[] allWords = text.toLowerCase().split("\\s+");
-        int totalWords = allWords.length;
+    // Term frequencies of the keywords of text, counted in one pass
+    private Map<String, Double> termWeights(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        List<String> keywords = extractKeywordList(text);
+        for (String keyword : keywords) {
+            frequencies.merge(keyword, 1, Integer::sum);
+        }
+        return termWeights(frequencies, keywords.size());
+    }
 
-        for (String word : words) {
-            int count = 0;
-            for (String w : allWords) {
-                if (w.equals(word)) count++;
-            }
+    private static Map<String, Double> termWeights(Map<String, Integer> termFrequencies, int keywordCount) {
+        Map<String, Double> weights = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+            weights.put(entry.getKey(), (double) entry.getValue() / keywordCount);
+        }
+        return weights;
+    }
 
-            double tf = (double) count / totalWords;
-            double idf = Math.log(1.0 + word.length() / 5.0);
-            tfidf.put(word, tf * idf);
+    private static double norm(Collection<Double> weights) {
+        double norm = 0.0;
+        for (double weight : weights) {
+            norm += weight * weight;
         }
+        return norm;
+    }
 
-        return tfidf;
+    /**
+     * Returns the keywords together with every word areSynonyms would match them against.
+     */
+    public Set<String> expandSynonyms(Set<String> keywords) {
+        Set<String> expanded = new HashSet<>(keywords);
+        for (String keyword : keywords) {
+            Set<Integer> groups = synonymGroups.get(keyword);
+            if (groups != null) {
+                for (int group : groups) {
+                    expanded.addAll(synonymGroupMembers.get(group));
+                }
+            }
+        }
+        return expanded;
     }
 
     private boolean areSynonyms(String word1, String word2) {
         if (word1.equals(word2)) return true;
 
-        Set<String> synonyms1 = synonyms.get(word1);
-        if (synonyms1 != null && synonyms1.contains(word2)) {
-            return true;
-        }
-
-        Set<String> synonyms2 = synonyms.get(word2);
-        return synonyms2 != null && synonyms2.contains(word1);
+        Set<Integer> groups1 = synonymGroups.get(word1);
+        Set<Integer> groups2 = synonymGroups.get(word2);
+        return groups1 != null && groups2 != null && !Collections.disjoint(groups1, groups2);
     }
 
-    private Set<String> extractKeywords(String text) {
-        Set<String> keywords = new HashSet<>();
+    public Set<String> extractKeywords(String text) {
+        return new HashSet<>(extractKeywordList(text));
+    }
 
-        String cleanText = text.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase();
-        String[] words = cleanText.split("\\s+");
+    // Same as extractKeywords but keeps duplicates in text order, for term frequencies
+    public List<String> extractKeywordList(String text) {
+        List<String> keywords = new ArrayList<>();
 
-        for (String word : words) {
-            if (word.length() > 2 && !stopWords.contains(word) && !isNumeric(word)) {
-                String stemmed = applyStemming(word);
-                keywords.add(stemmed);
-            }
+        Tokenizer tokenizer = tokenizers.get();
+        tokenizer.reset(text);
+        while (nextKeyword(tokenizer)) {
+            // Reuse the vocabulary's copy of known keywords
+            int id = vocabulary.lookup(tokenizer.buffer(), tokenizer.length());
+            keywords.add(id != TermDictionary.NOT_FOUND ? vocabulary.term(id) : tokenizer.word());
         }
 
         return keywords;
     }
 
-    private boolean isNumeric(String str) {
-        if (str == null || str.isEmpty()) {
-            return false;
-        }
-        try {
-            Double.parseDouble(str);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Advances tokenizer to its next keyword, skipping short words, stop words and numbers,
+     * and stems it in the buffer. Returns false at the end of the text.
+     */
+    private boolean nextKeyword(Tokenizer tokenizer) {
+        while (tokenizer.next()) {
+            if (tokenizer.length() > 2
+                    && stopWordTable.lookup(tokenizer.buffer(), tokenizer.length()) == TermDictionary.NOT_FOUND
+                    && !tokenizer.isNumeric()) {
+                applyStemming(tokenizer);
+                return true;
+            }
         }
+        return false;
     }
 
-    private String applyStemming(String word) {
-        if (word.length() <= 3) {
-            return word;
+    // Replaces the tokenizer's current word by its Porter stem, from the cache when possible
+    private void applyStemming(Tokenizer word) {
+        String stem = stemCache.get(word.buffer(), word.length());
+        if (stem != null) {
+            word.setWord(stem);
+            return;
         }
 
-        if (word.endsWith("ing") && word.length() > 4) {
-            return word.substring(0, word.length() - 3);
-        } else if (word.endsWith("ed") && word.length() > 3) {
-            return word.substring(0, word.length() - 2);
-        } else if (word.endsWith("ly") && word.length() > 3) {
-            return word.substring(0, word.length() - 2);
-        } else if (word.endsWith("tion") && word.length() > 5) {
-            return word.substring(0, word.length() - 4);
-        } else if (word.endsWith("ment") && word.length() > 5) {
-            return word.substring(0, word.length() - 4);
-        } else if (word.endsWith("ness") && word.length() > 5) {
-            return word.substring(0, word.length() - 4);
-        } else if (word.endsWith("able") && word.length() > 5) {
-            return word.substring(0, word.length() - 4);
-        } else if (word.endsWith("ible") && word.length() > 5) {
-            return word.substring(0, word.length() - 4);
-        } else if (word.endsWith("er") && word.length() > 3) {
-            return word.substring(0, word.length() - 2);
-        } else if (word.endsWith("est") && word.length() > 4) {
-            return word.substring(0, word.length() - 3);
-        } else if (word.endsWith("s") && word.length() > 2 && !word.endsWith("ss")) {
-            return word.substring(0, word.length() - 1);
-        }
+        String original = word.word();
+        word.setLength(stemmers.get().stem(word.buffer(), word.length()));
+        stemCache.put(original, word.word());
+    }
 
-        return word;
+    // Porter stem of one lowercase word, from the cache when possible
+    private String stem(String word) {
+        char[] chars = word.toCharArray();
+        String stem = stemCache.get(chars, chars.length);
+        if (stem == null) {
+            stem = new String(chars, 0, stemmers.get().stem(chars, chars.length));
+            stemCache.put(word, stem);
+        }
+        return stem;
     }
 
     private double calculatePhraseSimilarity(String text1, String text2) {
@@ -758,14 +1486,21 @@ public class SimpleNLP {
         return (double) matches / Math.max(phrases1.size(), phrases2.size());
     }
 
-    private double calculatePositionalSimilarity(String text1, String text2) {
-        String[] words1 = text1.toLowerCase().split("\\s+");
-        String[] words2 = text2.toLowerCase().split("\\s+");
+    // Words are compared by stem, as synonym groups are keyed by stems
+    double calculatePositionalSimilarity(String text1, String text2) {
+        String[] words1 = Tokenizer.splitWhitespace(text1.toLowerCase());
+        String[] words2 = Tokenizer.splitWhitespace(text2.toLowerCase());
 
         if (words1.length == 0 || words2.length == 0) {
             return 0.0;
         }
 
+        // First position of each stem of text2, so each word of text1 costs lookups, not a scan
+        Map<String, Integer> firstPositions = new HashMap<>();
+        for (int j = words2.length - 1; j >= 0; j--) {
+            firstPositions.put(stem(words2[j]), j);
+        }
+
         double positionScore = 0.0;
         int matches = 0;
 
@@ -778,18 +1513,22 @@ public class SimpleNLP {
 
             double relativePos1 = (double) i / words1.length;
 
-            for (int j = 0; j < words2.length; j++) {
-                String word2 = words2[j];
-                if (word1.equals(word2) || areSynonyms(word1, word2)) {
-                    double relativePos2 = (double) j / words2.length;
-                    double positionDiff = Math.abs(relativePos1 - relativePos2);
-
-                    // Higher score for words in similar positions
-                    positionScore += (1.0 - positionDiff);
-                    matches++;
-                    break;
+            // Earliest occurrence of the stem or of anything areSynonyms accepts for it
+            int j = Integer.MAX_VALUE;
+            for (String candidate : expandSynonyms(Collections.singleton(stem(word1)))) {
+                Integer position = firstPositions.get(candidate);
+                if (position != null && position < j) {
+                    j = position;
                 }
             }
+            if (j != Integer.MAX_VALUE) {
+                double relativePos2 = (double) j / words2.length;
+                double positionDiff = Math.abs(relativePos1 - relativePos2);
+
+                // Higher score for words in similar positions
+                positionScore += (1.0 - positionDiff);
+                matches++;
+            }
         }
 
         return matches > 0 ? positionScore / matches : 0.0;
@@ -0,0 +1,60 @@
+package com.easydocs.ai;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free memo of word stems. Document vocabularies repeat the same words over and
+ * over, so most stems are found here instead of being recomputed. Direct-mapped: each word
+ * hashes to one slot and a new word simply replaces the previous occupant, which bounds the
+ * memory without any eviction bookkeeping. Entries are immutable, so readers never see a torn
+ * one, and a lost race only costs a recomputation.
+ */
+final class StemCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    // capacity is rounded up to a power of two
+    StemCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    // Cached stem of the word in chars[0, length), or null
+    String get(char[] chars, int length) {
+        Entry entry = slots.get(slot(hash(chars, length)));
+        if (entry == null || entry.word.length() != length) return null;
+        for (int i = 0; i < length; i++) {
+            if (entry.word.charAt(i) != chars[i]) return null;
+        }
+        return entry.stem;
+    }
+
+    void put(String word, String stem) {
+        slots.set(slot(word.hashCode()), new Entry(word, stem));
+    }
+
+    // Same as String.hashCode, so get and put agree
+    private static int hash(char[] chars, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    private int slot(int hash) {
+        hash *= 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static final class Entry {
+        final String word;
+        final String stem;
+
+        Entry(String word, String stem) {
+            this.word = word;
+            this.stem = stem;
+        }
+    }
+}
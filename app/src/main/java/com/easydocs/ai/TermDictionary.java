@@ -0,0 +1,115 @@
+package com.easydocs.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Maps each stemmed term to a dense int id, so postings can live in an array indexed by id
+ * instead of a map keyed by String. Append-only: ids are never reused or removed, which lets
+ * successive index snapshots share one dictionary. Lookups are lock-free and interning is
+ * synchronized. Only text being indexed is interned: queries and titles are looked up without
+ * adding their terms, so a dictionary grows with the library, not with the query stream.
+ *
+ * Ids are found through an open-addressing table hashed like String.hashCode, so a term can
+ * also be looked up straight from a tokenizer's char buffer without creating a String.
+ */
+final class TermDictionary {
+    static final int NOT_FOUND = -1;
+
+    private volatile String[] terms = new String[64];
+    private volatile int size;
+    // Slot -> id + 1, 0 for empty; at most half full. Replaced, never shrunk, as it fills
+    private volatile AtomicIntegerArray slots = new AtomicIntegerArray(128);
+
+    // Id of term, or NOT_FOUND if it was never indexed
+    int lookup(String term) {
+        int hash = term.hashCode();
+        AtomicIntegerArray table = slots;
+        int mask = table.length() - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0) return NOT_FOUND;
+            // Reading the slot happens after the term was stored, so terms holds it
+            String candidate = terms[entry - 1];
+            if (candidate.hashCode() == hash && candidate.equals(term)) return entry - 1;
+        }
+    }
+
+    // Id of the term in chars[0, length), or NOT_FOUND if it was never indexed
+    int lookup(char[] chars, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        AtomicIntegerArray table = slots;
+        int mask = table.length() - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0) return NOT_FOUND;
+            String candidate = terms[entry - 1];
+            if (candidate.hashCode() == hash && equals(candidate, chars, length)) return entry - 1;
+        }
+    }
+
+    synchronized int intern(String term) {
+        int existing = lookup(term);
+        if (existing != NOT_FOUND) return existing;
+
+        int id = size;
+        String[] current = terms;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = term;
+        // Publish the array before the id, so a reader that sees the id also sees the term
+        terms = current;
+
+        AtomicIntegerArray table = slots;
+        if (2 * (id + 1) > table.length()) {
+            // Readers keep probing the old table, which stays consistent, until the new one is published
+            table = new AtomicIntegerArray(table.length() * 2);
+            for (int other = 0; other < id; other++) {
+                insert(table, current[other].hashCode(), other);
+            }
+            insert(table, term.hashCode(), id);
+            slots = table;
+        } else {
+            insert(table, term.hashCode(), id);
+        }
+        // Counted only once findable, so every id below size() can be looked up
+        size = id + 1;
+        return id;
+    }
+
+    String term(int id) {
+        return terms[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static void insert(AtomicIntegerArray table, int hash, int id) {
+        int mask = table.length() - 1;
+        int slot = mix(hash) & mask;
+        while (table.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.set(slot, id + 1);
+    }
+
+    // String hashes of similar short words differ mostly in low bits; spread them before masking
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String term, char[] chars, int length) {
+        if (term.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[i]) return false;
+        }
+        return true;
+    }
+}
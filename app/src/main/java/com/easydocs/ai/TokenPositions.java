@@ -0,0 +1,151 @@
+package com.easydocs.ai;
+
+import java.util.Arrays;
+
+/**
+ * Positional index of one text: for each distinct token id, the ascending positions where it
+ * occurs. Stored as three flat arrays, the distinct ids in ascending order and, per id, a range
+ * of a shared positions array, so a chunk costs a few int arrays rather than a map of lists.
+ * Phrase and proximity checks merge the position lists instead of scanning the text.
+ */
+final class TokenPositions {
+    static final TokenPositions EMPTY = new TokenPositions(new int[0], new int[1], new int[0]);
+
+    private final int[] ids;
+    // Positions of ids[i] are positions[starts[i]] to positions[starts[i + 1] - 1]
+    private final int[] starts;
+    private final int[] positions;
+
+    private TokenPositions(int[] ids, int[] starts, int[] positions) {
+        this.ids = ids;
+        this.starts = starts;
+        this.positions = positions;
+    }
+
+    // tokenIds holds the id of each token in text order
+    static TokenPositions of(int[] tokenIds) {
+        if (tokenIds.length == 0) return EMPTY;
+
+        // Sorting (id, position) pairs groups each id's positions in ascending order
+        long[] pairs = new long[tokenIds.length];
+        for (int position = 0; position < tokenIds.length; position++) {
+            pairs[position] = ((long) tokenIds[position] << 32) | position;
+        }
+        Arrays.sort(pairs);
+
+        int[] ids = new int[tokenIds.length];
+        int[] starts = new int[tokenIds.length + 1];
+        int[] positions = new int[tokenIds.length];
+        int distinct = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            int id = (int) (pairs[i] >>> 32);
+            if (distinct == 0 || ids[distinct - 1] != id) {
+                ids[distinct] = id;
+                starts[distinct] = i;
+                distinct++;
+            }
+            positions[i] = (int) pairs[i];
+        }
+        starts[distinct] = pairs.length;
+        return new TokenPositions(Arrays.copyOf(ids, distinct), Arrays.copyOf(starts, distinct + 1), positions);
+    }
+
+    // Distinct token ids, ascending; shared, not to be modified
+    int[] ids() {
+        return ids;
+    }
+
+    boolean contains(int id) {
+        return slot(id) >= 0;
+    }
+
+    // Number of occurrences of id
+    int count(int id) {
+        int slot = slot(id);
+        return slot >= 0 ? starts[slot + 1] - starts[slot] : 0;
+    }
+
+    /**
+     * True if the ids occur at consecutive positions in this order. Walks the first id's
+     * positions and advances through the others' in step, so each list is read once.
+     */
+    boolean containsPhrase(int[] phraseIds) {
+        if (phraseIds.length == 0) return false;
+
+        int[] cursors = new int[phraseIds.length];
+        int[] ends = new int[phraseIds.length];
+        for (int i = 0; i < phraseIds.length; i++) {
+            int slot = slot(phraseIds[i]);
+            if (slot < 0) return false;
+            cursors[i] = starts[slot];
+            ends[i] = starts[slot + 1];
+        }
+
+        for (; cursors[0] < ends[0]; cursors[0]++) {
+            int first = positions[cursors[0]];
+            boolean matched = true;
+            for (int i = 1; i < phraseIds.length && matched; i++) {
+                while (cursors[i] < ends[i] && positions[cursors[i]] < first + i) {
+                    cursors[i]++;
+                }
+                if (cursors[i] == ends[i]) return false;
+                matched = positions[cursors[i]] == first + i;
+            }
+            if (matched) return true;
+        }
+        return false;
+    }
+
+    /**
+     * How tightly the given ids cluster: the number of distinct ids present divided by the
+     * length in tokens of the shortest window holding all of them, so 1 when they are adjacent.
+     * 0 if fewer than two are present. Merges the position lists, always advancing the one at
+     * the window start.
+     */
+    double proximity(int[] termIds) {
+        int[] cursors = new int[termIds.length];
+        int[] ends = new int[termIds.length];
+        int present = 0;
+        for (int id : termIds) {
+            int slot = slot(id);
+            if (slot < 0 || containsSlot(cursors, present, starts[slot])) continue;
+            cursors[present] = starts[slot];
+            ends[present] = starts[slot + 1];
+            present++;
+        }
+        if (present < 2) return 0;
+
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int lowest = 0;
+            int highestPosition = positions[cursors[0]];
+            for (int i = 1; i < present; i++) {
+                int position = positions[cursors[i]];
+                if (position < positions[cursors[lowest]]) lowest = i;
+                if (position > highestPosition) highestPosition = position;
+            }
+            best = Math.min(best, highestPosition - positions[cursors[lowest]] + 1);
+            if (best == present || ++cursors[lowest] == ends[lowest]) {
+                return (double) present / best;
+            }
+        }
+    }
+
+    // Rough heap footprint, for memory reporting only
+    long estimateHeapBytes() {
+        return 16 + 3 * 16 + 4L * (ids.length + starts.length + positions.length);
+    }
+
+    // Index of id in ids, or negative if the text doesn't contain it
+    private int slot(int id) {
+        return id < 0 ? -1 : Arrays.binarySearch(ids, id);
+    }
+
+    // Duplicate ids in a query must not count twice towards the window
+    private static boolean containsSlot(int[] cursors, int count, int start) {
+        for (int i = 0; i < count; i++) {
+            if (cursors[i] == start) return true;
+        }
+        return false;
+    }
+}
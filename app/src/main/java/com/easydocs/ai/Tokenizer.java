@@ -0,0 +1,168 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass scanner producing the words keyword extraction works on. Each word is written
+ * into a reusable char buffer rather than a substring, and characters are classified through
+ * a table instead of regular expressions: ASCII letters and digits form words, with letters
+ * lowercased as they are copied, the whitespace characters matched by the regex \s separate
+ * words, and everything else is dropped, so "don't" reads as "dont".
+ *
+ * Not thread-safe; SimpleNLP keeps one per thread.
+ */
+final class Tokenizer {
+    private static final byte DROPPED = 0;
+    private static final byte SEPARATOR = 1;
+    private static final byte LOWER = 2;
+    private static final byte UPPER = 3;
+    private static final byte DIGIT = 4;
+    // Class of every ASCII char; all other chars are DROPPED
+    private static final byte[] CHAR_CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) CHAR_CLASSES[c] = LOWER;
+        for (char c = 'A'; c <= 'Z'; c++) CHAR_CLASSES[c] = UPPER;
+        for (char c = '0'; c <= '9'; c++) CHAR_CLASSES[c] = DIGIT;
+        for (char c : new char[]{' ', '\t', '\n', '\u000B', '\f', '\r'}) CHAR_CLASSES[c] = SEPARATOR;
+    }
+
+    private String text = "";
+    private int position;
+    private char[] word = new char[32];
+    private int length;
+
+    // Starts scanning text from its beginning
+    void reset(String text) {
+        this.text = text;
+        this.position = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Advances to the next non-empty word, returning false at the end of the text.
+     * The word is then buffer()[0, length()), valid until the next call.
+     */
+    boolean next() {
+        length = 0;
+        String text = this.text;
+        int end = text.length();
+        while (position < end) {
+            char c = text.charAt(position++);
+            byte charClass = c < 128 ? CHAR_CLASSES[c] : DROPPED;
+            if (charClass == SEPARATOR) {
+                if (length > 0) return true;
+            } else if (charClass != DROPPED) {
+                if (length == word.length) {
+                    char[] larger = new char[word.length * 2];
+                    System.arraycopy(word, 0, larger, 0, length);
+                    word = larger;
+                }
+                word[length++] = charClass == UPPER ? (char) (c + ('a' - 'A')) : c;
+            }
+        }
+        return length > 0;
+    }
+
+    char[] buffer() {
+        return word;
+    }
+
+    int length() {
+        return length;
+    }
+
+    // Shortens the current word, e.g. after stripping a suffix
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    // Replaces the current word, e.g. by its cached stem
+    void setWord(String replacement) {
+        length = replacement.length();
+        if (length > word.length) {
+            word = new char[Math.max(length, word.length * 2)];
+        }
+        replacement.getChars(0, length, word, 0);
+    }
+
+    // The current word as a String; allocates
+    String word() {
+        return new String(word, 0, length);
+    }
+
+    /**
+     * True if Double.parseDouble would accept the current word. Words only hold lowercase
+     * letters and digits, which leaves decimal integers with an optional exponent and
+     * hexadecimal floats, either with an optional d or f suffix.
+     */
+    boolean isNumeric() {
+        int end = length;
+        if (end > 0 && (word[end - 1] == 'd' || word[end - 1] == 'f')) end--;
+
+        if (end > 2 && word[0] == '0' && word[1] == 'x') {
+            // Hexadecimal floats need a binary exponent: 0x1p3
+            int i = 2;
+            while (i < end && isHexDigit(word[i])) i++;
+            if (i == 2 || i == end || word[i] != 'p') return false;
+            return digitsUntil(i + 1, end);
+        }
+
+        int i = 0;
+        while (i < end && isDigit(word[i])) i++;
+        if (i == 0) return false;
+        if (i == end) return true;
+        return word[i] == 'e' && digitsUntil(i + 1, end);
+    }
+
+    // True if word[from, end) is one or more digits
+    private boolean digitsUntil(int from, int end) {
+        if (from >= end) return false;
+        for (int i = from; i < end; i++) {
+            if (!isDigit(word[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * Same result as text.split("\\s+") without compiling a regex: the runs between whitespace,
+     * with an empty first token if text starts with whitespace and no trailing empty token.
+     */
+    static String[] splitWhitespace(String text) {
+        if (text.isEmpty()) return new String[]{text};
+
+        List<String> tokens = new ArrayList<>();
+        int end = text.length();
+        int start = 0;
+        boolean separated = false;
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 128 && CHAR_CLASSES[c] == SEPARATOR) {
+                if (!separated) {
+                    tokens.add(text.substring(start, i));
+                    separated = true;
+                }
+                start = i + 1;
+            } else {
+                separated = false;
+            }
+        }
+        if (start < end) {
+            tokens.add(text.substring(start, end));
+        }
+
+        // Trailing empty tokens are dropped, as split does
+        int count = tokens.size();
+        while (count > 0 && tokens.get(count - 1).isEmpty()) count--;
+        return tokens.subList(0, count).toArray(new String[count]);
+    }
+}
@@ -0,0 +1,208 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the k best-scoring items seen so far in a fixed-size min-heap.
+ * Scores are stored as primitives, so offering an item never boxes a Double.
+ * Equal scores are broken by sequence number: the item offered first ranks higher,
+ * which keeps results deterministic regardless of the order segments are merged in.
+ * The heap grows with the items offered, so a large k over few candidates stays small.
+ */
+public class TopKCollector<T> {
+    private static final int INITIAL_SLOTS = 16;
+
+    private final int capacity;
+    private Object[] items;
+    private double[] scores;
+    private long[] sequences;
+    private int size;
+    private long nextSequence;
+
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        int slots = Math.min(this.capacity, INITIAL_SLOTS);
+        this.items = new Object[slots];
+        this.scores = new double[slots];
+        this.sequences = new long[slots];
+    }
+
+    public boolean offer(T item, double score) {
+        return offer(item, score, nextSequence++);
+    }
+
+    /**
+     * Offers an item with an explicit tie-break sequence (lower wins on equal score).
+     * Returns true if the item is now part of the top-K.
+     */
+    public boolean offer(T item, double score, long sequence) {
+        if (capacity == 0) return false;
+
+        if (size < capacity) {
+            if (size == items.length) {
+                grow();
+            }
+            items[size] = item;
+            scores[size] = score;
+            sequences[size] = sequence;
+            siftUp(size++);
+            return true;
+        }
+
+        if (!ranksBelow(0, score, sequence)) {
+            return false;
+        }
+
+        items[0] = item;
+        scores[0] = score;
+        sequences[0] = sequence;
+        siftDown(0);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void addAll(TopKCollector<T> other) {
+        for (int i = 0; i < other.size; i++) {
+            offer((T) other.items[i], other.scores[i], other.sequences[i]);
+        }
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Score an item must beat to enter the top-K, or negative infinity while not yet full.
+     */
+    public double threshold() {
+        return size < capacity ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+        nextSequence = 0;
+    }
+
+    /**
+     * Returns the collected items ordered from best to worst. Does not modify the collector.
+     */
+    public List<T> toSortedList() {
+        return toSortedList(null);
+    }
+
+    /**
+     * Same as toSortedList, also copying the matching scores into sortedScores when it is
+     * at least size() long.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> toSortedList(double[] sortedScores) {
+        // Heap slots in heap order form a min-heap themselves; popping the worst slot each time
+        // and filling order from the back sorts them in O(k log k) without touching the heap
+        int[] heap = new int[size];
+        for (int i = 0; i < size; i++) {
+            heap[i] = i;
+        }
+        int[] order = new int[size];
+        for (int remaining = size; remaining > 0; remaining--) {
+            order[remaining - 1] = heap[0];
+            heap[0] = heap[remaining - 1];
+            siftDown(heap, 0, remaining - 1);
+        }
+
+        List<T> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add((T) items[order[i]]);
+            if (sortedScores != null && sortedScores.length >= size) {
+                sortedScores[i] = scores[order[i]];
+            }
+        }
+        return result;
+    }
+
+    // Doubles the heap arrays, never past capacity
+    private void grow() {
+        int slots = (int) Math.min(capacity, 2L * items.length);
+        items = Arrays.copyOf(items, slots);
+        scores = Arrays.copyOf(scores, slots);
+        sequences = Arrays.copyOf(sequences, slots);
+    }
+
+    // True if the heap entry at index ranks strictly below (score, sequence)
+    private boolean ranksBelow(int index, double score, long sequence) {
+        int cmp = Double.compare(scores[index], score);
+        return cmp < 0 || (cmp == 0 && sequences[index] > sequence);
+    }
+
+    private boolean less(int a, int b) {
+        return ranksBelow(a, scores[b], sequences[b]);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(index, parent)) break;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) break;
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && less(right, left)) {
+                smallest = right;
+            }
+            if (!less(smallest, index)) break;
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    // siftDown over a heap of slot indices holding heapSize entries
+    private void siftDown(int[] heap, int index, int heapSize) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= heapSize) break;
+            int smallest = left;
+            int right = left + 1;
+            if (right < heapSize && less(heap[right], heap[left])) {
+                smallest = right;
+            }
+            if (!less(heap[smallest], heap[index])) break;
+            int slot = heap[index];
+            heap[index] = heap[smallest];
+            heap[smallest] = slot;
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        Object item = items[a];
+        items[a] = items[b];
+        items[b] = item;
+
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+
+        long sequence = sequences[a];
+        sequences[a] = sequences[b];
+        sequences[b] = sequence;
+    }
+}
@@ -0,0 +1,85 @@
+package com.easydocs.ai;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Character trigram index over the terms of a TermDictionary, answering "which terms contain
+ * this word" without comparing the word to every term. Each trigram maps to the ascending ids
+ * of the terms containing it; a term can only contain a word if it has all of the word's
+ * trigrams, so the candidates are those of the word's rarest trigram, checked with contains.
+ *
+ * The dictionary is append-only, so the index just catches up with terms added since the last
+ * lookup. Terms shorter than a trigram are not indexed; they cannot contain a longer word.
+ */
+final class TrigramIndex {
+    private static final int GRAM = 3;
+
+    private final TermDictionary dictionary;
+    // Trigram packed into a long -> ascending term ids; guarded by this
+    private final Map<Long, IdList> postings = new HashMap<>();
+    // Terms with ids below this are indexed
+    private int indexedSize;
+
+    TrigramIndex(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Ascending ids below limit of the terms that contain word, which must be at least three
+     * chars long. limit must not exceed the dictionary size.
+     */
+    synchronized int[] containing(String word, int limit) {
+        catchUp();
+
+        IdList rarest = null;
+        for (int i = 0; i + GRAM <= word.length(); i++) {
+            IdList list = postings.get(pack(word, i));
+            if (list == null) return new int[0];
+            if (rarest == null || list.size < rarest.size) rarest = list;
+        }
+
+        int[] matches = new int[rarest.size];
+        int count = 0;
+        for (int i = 0; i < rarest.size; i++) {
+            int id = rarest.ids[i];
+            if (id >= limit) break;
+            if (dictionary.term(id).contains(word)) matches[count++] = id;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private void catchUp() {
+        int size = dictionary.size();
+        for (int id = indexedSize; id < size; id++) {
+            String term = dictionary.term(id);
+            for (int i = 0; i + GRAM <= term.length(); i++) {
+                long gram = pack(term, i);
+                IdList list = postings.get(gram);
+                if (list == null) {
+                    list = new IdList();
+                    postings.put(gram, list);
+                }
+                list.addOnce(id);
+            }
+        }
+        indexedSize = size;
+    }
+
+    private static long pack(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    // Growable array of ascending ids; a term repeating a trigram adds its id once
+    private static final class IdList {
+        int[] ids = new int[4];
+        int size;
+
+        void addOnce(int id) {
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+}
@@ -2,10 +2,27 @@ package com.easydocs.ai;
 
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.Arrays;
 import java.util.Collections;
@@ -13,33 +30,345 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 public class VectorStore {
-    private List<DocumentChunk> chunks;
+    // Term ids of the postings and of the analyzer's features alike, shared by every snapshot
+    private final TermDictionary terms = new TermDictionary();
+    // Queries read whichever snapshot is current; writers publish a new one under writeLock
+    private final AtomicReference<IndexSnapshot> snapshot = new AtomicReference<>(IndexSnapshot.empty(terms));
+    private final Object writeLock = new Object();
+    // Compaction and saving share one thread, so index files are written one at a time
+    private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean compactionScheduled;
+    // Set while a save is pending; whichever save task clears it writes the file
+    private final AtomicBoolean persistPending = new AtomicBoolean();
+    private volatile boolean budgetCheckScheduled;
+    private volatile File indexFile;
+    private volatile boolean offHeapStorage;
+    private final ContentStore contentStore = new ContentStore();
+    private volatile boolean compressContent = true;
+    private volatile boolean deduplicateChunks = true;
+    // Guarded by writeLock; rebuilt whenever the snapshot changed other than by adding documents
+    private NearDuplicateIndex duplicateIndex;
+    // Documents chunked by addDocuments and not yet published; drained under writeLock
+    private final ConcurrentLinkedQueue<PendingDocument> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final MemoryBudget memoryBudget = new MemoryBudget();
+    // Orders documents by when they were last returned from a query, for eviction
+    private final AtomicLong accessClock = new AtomicLong();
+    // Source of text for documents added or rebuilt after their content was released
+    private volatile ExtractionCache extractionCache;
     private SimpleNLP nlpProcessor;
     private DocumentProcessor documentProcessor;
     private static final int CHUNK_SIZE = 400;
     private static final int CHUNK_OVERLAP = 50;
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\n\n+");
+    private static final Pattern SENTENCE_BREAK = Pattern.compile("(?<=[.!?])\\s+");
     private static final int DEFAULT_TOP_K = 5;
+    private static final int DEFAULT_CANDIDATE_POOL_SIZE = 50;
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "is", "are", "was", "were", "the", "a", "an", "and", "or", "but",
+            "in", "on", "at", "to", "for", "of", "with", "by", "how", "what",
+            "when", "where", "why", "who", "which", "that", "this", "these", "those"));
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    // Below this many candidates the fork/join overhead outweighs the parallel speedup
+    private static final int PARALLEL_SCORING_THRESHOLD = 256;
+    private static final int SCORING_SEGMENT_SIZE = 64;
+    private static final double MAX_EXACT_MATCH_BOOST = 1.0;
+    // Words in a chunk that answer what, how, why and when questions, as DocumentChunk flags
+    private static final int QUESTION_CUE_DEFINITION = 1;
+    private static final int QUESTION_CUE_PROCESS = 2;
+    private static final int QUESTION_CUE_REASON = 4;
+    private static final int QUESTION_CUE_TIME = 8;
+    // Share of the missing exact-match boost that query words found close together make up
+    private static final double PROXIMITY_WEIGHT = 0.5;
+    // Deleted chunks are physically removed once they make up this fraction of the index
+    private static final double COMPACTION_THRESHOLD = 0.25;
+    // The file is one image of the whole index, so it is rewritten at most once per this delay
+    private static final long PERSIST_DELAY_MS = 3000;
+
+    /**
+     * EXHAUSTIVE runs the full similarity score on every chunk sharing a keyword with the query.
+     * TWO_STAGE first ranks those chunks with BM25 and only reranks the best candidatePoolSize.
+     */
+    public enum RetrievalMode {
+        EXHAUSTIVE,
+        TWO_STAGE
+    }
+
+    private volatile RetrievalMode retrievalMode = RetrievalMode.EXHAUSTIVE;
+    private volatile boolean parallelScoring = true;
+    private volatile boolean dynamicPruning = true;
+    private volatile int candidatePoolSize = DEFAULT_CANDIDATE_POOL_SIZE;
+    private volatile RetrievalStats lastRetrievalStats;
 
     public VectorStore() {
-        this.chunks = new ArrayList<>();
-        this.nlpProcessor = new SimpleNLP();
+        this.nlpProcessor = new SimpleNLP(terms);
         this.documentProcessor = new DocumentProcessor();
     }
 
     public void addDocument(DocumentItem document) {
+        addDocuments(Collections.singletonList(document));
+    }
+
+    /**
+     * Indexes documents. Chunking and feature extraction run outside the lock so concurrent
+     * imports overlap; whichever import then takes the lock publishes every document chunked
+     * so far in one snapshot, so a multi-file import copies the index once per batch rather
+     * than once per file.
+     */
+    public void addDocuments(List<DocumentItem> documents) {
+        for (DocumentItem document : documents) {
+            List<DocumentChunk> documentChunks = processDocument(document);
+            if (!documentChunks.isEmpty()) {
+                pendingAdds.add(new PendingDocument(document, documentChunks));
+            }
+        }
+
+        synchronized (writeLock) {
+            // Empty if another import already published these documents with its own
+            if (pendingAdds.isEmpty()) return;
+
+            Map<DocumentItem, List<DocumentChunk>> added = new LinkedHashMap<>();
+            for (PendingDocument pending; (pending = pendingAdds.poll()) != null; ) {
+                // A document queued twice keeps its latest chunks
+                added.remove(pending.document);
+                added.put(pending.document, pending.chunks);
+            }
+
+            IndexSnapshot current = snapshot.get();
+            // A re-added document's old chunks must not count as originals of its new ones
+            for (DocumentItem document : added.keySet()) {
+                if (current.documentRanges.containsKey(document)) {
+                    current = current.withoutDocument(document);
+                }
+            }
+            if (duplicateIndex == null || duplicateIndex.getSnapshot() != current) {
+                duplicateIndex = NearDuplicateIndex.build(current);
+            }
+
+            Map<DocumentItem, DocumentChunk[]> canonicals = new HashMap<>();
+            for (Map.Entry<DocumentItem, List<DocumentChunk>> entry : added.entrySet()) {
+                canonicals.put(entry.getKey(), findNearDuplicates(duplicateIndex, entry.getValue()));
+            }
+            IndexSnapshot updated = current.withDocuments(added, canonicals);
+            snapshot.set(updated);
+            duplicateIndex.setSnapshot(updated);
+
+            for (Map.Entry<DocumentItem, List<DocumentChunk>> entry : added.entrySet()) {
+                int duplicateCount = 0;
+                for (DocumentChunk canonical : canonicals.get(entry.getKey())) {
+                    if (canonical != null) duplicateCount++;
+                }
+                Log.i("VectorStore", "Added " + entry.getValue().size() + " chunks from "
+                        + entry.getKey().getFileName() + ", " + duplicateCount
+                        + " of them near-duplicates of indexed chunks");
+            }
+        }
+        schedulePersist();
+        scheduleBudgetCheck();
+    }
+
+    // A document chunked by addDocuments, waiting for the write lock to be published
+    private static final class PendingDocument {
+        final DocumentItem document;
+        final List<DocumentChunk> chunks;
+
+        PendingDocument(DocumentItem document, List<DocumentChunk> chunks) {
+            this.document = document;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * For each chunk, the canonical chunk it near-duplicates, or null; unique chunks are added
+     * to index, so later chunks of the same document can match them too.
+     */
+    private DocumentChunk[] findNearDuplicates(NearDuplicateIndex index, List<DocumentChunk> documentChunks) {
+        DocumentChunk[] canonicals = new DocumentChunk[documentChunks.size()];
+        if (!deduplicateChunks) return canonicals;
+
+        for (int i = 0; i < canonicals.length; i++) {
+            DocumentChunk chunk = documentChunks.get(i);
+            canonicals[i] = index.findDuplicate(chunk);
+            if (canonicals[i] == null) {
+                index.add(chunk);
+            }
+        }
+        return canonicals;
+    }
+
+    /**
+     * Re-indexes the given documents into a fresh snapshot and publishes it in one step,
+     * so queries keep using the old index until the new one is complete.
+     */
+    public void rebuild(List<DocumentItem> documents) {
+        synchronized (writeLock) {
+            IndexSnapshot empty = IndexSnapshot.empty(terms);
+            NearDuplicateIndex duplicates = NearDuplicateIndex.build(empty);
+            Map<DocumentItem, List<DocumentChunk>> added = new LinkedHashMap<>();
+            Map<DocumentItem, DocumentChunk[]> canonicals = new HashMap<>();
+            for (DocumentItem document : documents) {
+                List<DocumentChunk> documentChunks = processDocument(document);
+                if (!documentChunks.isEmpty()) {
+                    added.put(document, documentChunks);
+                    canonicals.put(document, findNearDuplicates(duplicates, documentChunks));
+                }
+            }
+            IndexSnapshot rebuilt = empty.withDocuments(added, canonicals);
+            snapshot.set(rebuilt);
+            duplicates.setSnapshot(rebuilt);
+            duplicateIndex = duplicates;
+        }
+        schedulePersist();
+    }
+
+    /**
+     * Removes a document without re-indexing the others: its chunks are marked deleted and
+     * filtered out at query time, and a background compaction drops them once enough
+     * of the index is deleted.
+     */
+    public void removeDocument(DocumentItem document) {
+        IndexSnapshot updated;
+        synchronized (writeLock) {
+            updated = snapshot.get().withoutDocument(document);
+            snapshot.set(updated);
+        }
+
+        if (updated.deletedFraction() > COMPACTION_THRESHOLD) {
+            scheduleCompaction();
+        }
+        schedulePersist();
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled) return;
+        compactionScheduled = true;
+
+        maintenanceExecutor.execute(() -> {
+            try {
+                synchronized (writeLock) {
+                    IndexSnapshot current = snapshot.get();
+                    if (current.deletedFraction() > COMPACTION_THRESHOLD) {
+                        snapshot.set(current.compacted());
+                        Log.d("VectorStore", "Compacted index, dropped " + current.deletedCount + " deleted chunks");
+                    }
+                }
+            } finally {
+                compactionScheduled = false;
+            }
+        });
+    }
+
+    /**
+     * Loads the index saved in file, if there is one, and saves every later change back to it.
+     * Call before adding documents. Returns the restored documents in the order they were added;
+     * their text lives in the index, so they are not re-extracted. Throws if the file exists but
+     * cannot be read, for example when it was written in another format version; the file is then
+     * deleted and the store starts empty, so callers must tell the user or re-add the documents.
+     */
+    public List<DocumentItem> attachIndexFile(File file) throws IOException {
+        indexFile = file;
+        if (!file.exists()) return Collections.emptyList();
+
+        try {
+            long start = System.nanoTime();
+            IndexSnapshot loaded = IndexFile.read(file, terms, nlpProcessor, offHeapStorage);
+            synchronized (writeLock) {
+                snapshot.set(loaded);
+            }
+            Log.i("VectorStore", "Loaded " + loaded.chunks.size() + " chunks from " + file.getName()
+                    + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return new ArrayList<>(loaded.documentRanges.keySet());
+        } catch (IOException | RuntimeException e) {
+            Log.e("VectorStore", "Discarding unreadable index file " + file, e);
+            file.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt index file " + file, e);
+        }
+    }
+
+    /**
+     * Saves the current index now instead of after the usual delay, if a save is pending.
+     * Returns at once; the write happens on the maintenance thread.
+     */
+    public void flushIndexFile() {
+        if (persistPending.get()) {
+            maintenanceExecutor.execute(this::persistIfPending);
+        }
+    }
+
+    /**
+     * Coalesces changes into one write of whatever snapshot is current when it runs. The file
+     * holds contiguous postings and text without deleted chunks, so every save rewrites it in
+     * full; delaying it turns an import of many files into a few writes instead of one each.
+     */
+    private void schedulePersist() {
+        if (indexFile == null || !persistPending.compareAndSet(false, true)) return;
+        maintenanceExecutor.schedule(this::persistIfPending, PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void persistIfPending() {
+        if (!persistPending.getAndSet(false)) return;
+
+        File file = indexFile;
+        IndexSnapshot current = snapshot.get();
+        IndexSnapshot written = current.deletedCount > 0 ? current.compacted() : current;
+        try {
+            IndexFile.write(written, file);
+            if (offHeapStorage) {
+                swapInMapped(current, written, file);
+            }
+        } catch (IOException e) {
+            Log.e("VectorStore", "Failed to save index to " + file, e);
+        }
+    }
+
+    // Coalesced like saving; a no-op without a memory budget
+    private void scheduleBudgetCheck() {
+        if (memoryBudget.getBudgetBytes() <= 0 || budgetCheckScheduled) return;
+        budgetCheckScheduled = true;
+
+        maintenanceExecutor.execute(() -> {
+            budgetCheckScheduled = false;
+            memoryBudget.enforce(snapshot.get());
+        });
+    }
+
+    /**
+     * Replaces the current snapshot with the copy just written to file, mapped so that its text
+     * and postings stay outside the heap. Skipped if another change was published meanwhile;
+     * the save scheduled for that change swaps it in instead.
+     */
+    private void swapInMapped(IndexSnapshot current, IndexSnapshot written, File file) throws IOException {
+        IndexSnapshot mapped = IndexFile.read(file, terms, nlpProcessor, true).withDocumentsOf(written);
+        synchronized (writeLock) {
+            if (snapshot.get() == current) {
+                snapshot.set(mapped);
+            }
+        }
+    }
+
+    private List<DocumentChunk> processDocument(DocumentItem document) {
         try {
             // Process document based on its type
-            String extractedContent = documentProcessor.extractContent(document);
+            String extractedContent = documentProcessor.extractContent(document, contentOf(document));
             if (extractedContent != null && !extractedContent.trim().isEmpty()) {
-                List<DocumentChunk> documentChunks = createSmartChunks(document, extractedContent);
-                chunks.addAll(documentChunks);
-                Log.i("VectorStore", "Added " + documentChunks.size() + " chunks from " + document.getFileName());
+                return createSmartChunks(document, extractedContent);
             } else {
                 Log.w("VectorStore", "No content extracted from document: " + document.getFileName());
             }
         } catch (Exception e) {
             Log.e("VectorStore", "Error processing document: " + document.getFileName(), e);
         }
+        return Collections.emptyList();
+    }
+
+    // The document's content, or its cached extraction once the content has been released
+    private String contentOf(DocumentItem document) {
+        String content = document.getContent();
+        ExtractionCache cache = extractionCache;
+        if (content == null && cache != null && document.getContentHash() != null) {
+            content = cache.get(document.getContentHash());
+        }
+        return content;
     }
 
     /**
@@ -50,7 +379,7 @@ public class VectorStore {
     }
 
     public String answerQuestion(String question, int topK) {
-        if (chunks.isEmpty()) {
+        if (snapshot.get().liveChunkCount() == 0) {
             return "I don't have any documents to search through. Please upload some documents first.";
         }
 
@@ -76,27 +405,212 @@ public class VectorStore {
     }
 
     private List<DocumentChunk> retrieveRelevantChunks(String query, int topK) {
-        if (chunks.isEmpty()) {
+        return retrieveRelevantChunks(query, topK, retrievalMode);
+    }
+
+    private List<DocumentChunk> retrieveRelevantChunks(String query, int topK, RetrievalMode mode) {
+        // One snapshot for the whole query, so concurrent ingestion is never half-visible
+        IndexSnapshot index = snapshot.get();
+        if (index.liveChunkCount() == 0) {
             return new ArrayList<>();
         }
 
-        Map<DocumentChunk, Double> scores = new HashMap<>();
+        long startTime = System.nanoTime();
+        QueryPlan plan = compileQuery(query, index);
+        Collection<DocumentChunk> candidates = mode == RetrievalMode.TWO_STAGE
+                ? selectBm25Candidates(index, plan, candidatePoolSize)
+                : findCandidateChunks(index, plan);
+        long candidateTime = System.nanoTime();
+
+        // Only chunks sharing at least one keyword with the query are scored
+        AtomicInteger prunedCounter = new AtomicInteger();
+        TopKCollector<DocumentChunk> topChunks;
+        if (parallelScoring && candidates.size() >= PARALLEL_SCORING_THRESHOLD
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            List<DocumentChunk> candidateList = candidates instanceof List
+                    ? (List<DocumentChunk>) candidates : new ArrayList<>(candidates);
+            topChunks = ForkJoinPool.commonPool().invoke(
+                    new ScoringTask(plan, candidateList, 0, candidateList.size(), topK, prunedCounter));
+        } else {
+            topChunks = scoreChunks(plan, candidates, topK, prunedCounter);
+        }
 
-        // Calculate similarity scores for all chunks
-        for (DocumentChunk chunk : chunks) {
-            double score = calculateEnhancedSimilarity(query, chunk);
-            scores.put(chunk, score);
+        List<DocumentChunk> results = topChunks.toSortedList();
+        long stamp = accessClock.incrementAndGet();
+        for (DocumentChunk chunk : results) {
+            chunk.getText().touch(stamp);
         }
+        scheduleBudgetCheck();
 
-        // Sort by relevance score and return top results
-        return scores.entrySet().stream()
-                .sorted(Map.Entry.<DocumentChunk, Double>comparingByValue().reversed())
-                .limit(topK)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+        lastRetrievalStats = new RetrievalStats(mode, index.liveChunkCount(), candidates.size(), prunedCounter.get(),
+                candidateTime - startTime, System.nanoTime() - candidateTime);
+        return results;
+    }
+
+    private QueryPlan compileQuery(String query, IndexSnapshot index) {
+        return new QueryPlan(query, nlpProcessor, STOP_WORDS, index.corpusStats);
+    }
+
+    private TopKCollector<DocumentChunk> scoreChunks(QueryPlan plan, Iterable<DocumentChunk> candidates,
+                                                     int topK, AtomicInteger prunedCounter) {
+        TopKCollector<DocumentChunk> topChunks = new TopKCollector<>(topK);
+        for (DocumentChunk chunk : candidates) {
+            double threshold = dynamicPruning ? topChunks.threshold() : Double.NEGATIVE_INFINITY;
+            double score = calculateEnhancedSimilarity(plan, chunk, threshold);
+            if (Double.isNaN(score)) {
+                prunedCounter.incrementAndGet();
+                continue;
+            }
+            topChunks.offer(chunk, score, chunk.getId());
+        }
+        return topChunks;
+    }
+
+    /**
+     * Scores a range of candidates, splitting it in half until segments are small enough.
+     * Each segment keeps its own top-K and the halves are merged on the way back up; the
+     * chunk id tie-break makes the merged result identical to the sequential path.
+     */
+    private class ScoringTask extends RecursiveTask<TopKCollector<DocumentChunk>> {
+        private static final long serialVersionUID = 1L;
+
+        private final QueryPlan plan;
+        private final List<DocumentChunk> candidates;
+        private final int start;
+        private final int end;
+        private final int topK;
+        private final AtomicInteger prunedCounter;
+
+        ScoringTask(QueryPlan plan, List<DocumentChunk> candidates, int start, int end, int topK,
+                    AtomicInteger prunedCounter) {
+            this.plan = plan;
+            this.candidates = candidates;
+            this.start = start;
+            this.end = end;
+            this.topK = topK;
+            this.prunedCounter = prunedCounter;
+        }
+
+        @Override
+        protected TopKCollector<DocumentChunk> compute() {
+            if (end - start <= SCORING_SEGMENT_SIZE) {
+                return scoreChunks(plan, candidates.subList(start, end), topK, prunedCounter);
+            }
+
+            int middle = (start + end) >>> 1;
+            ScoringTask left = new ScoringTask(plan, candidates, start, middle, topK, prunedCounter);
+            left.fork();
+            TopKCollector<DocumentChunk> right = new ScoringTask(plan, candidates, middle, end, topK, prunedCounter).compute();
+            TopKCollector<DocumentChunk> merged = left.join();
+            merged.addAll(right);
+            return merged;
+        }
+    }
+
+    /**
+     * First stage of TWO_STAGE retrieval: scores the indexed candidates with BM25 over the
+     * snapshot's corpus statistics and keeps the best poolSize for the full similarity rerank.
+     */
+    private Collection<DocumentChunk> selectBm25Candidates(IndexSnapshot index, QueryPlan plan, int poolSize) {
+        List<DocumentChunk> chunks = index.chunks;
+        CorpusStats corpusStats = index.corpusStats;
+        double averageLength = corpusStats.getAverageLength();
+
+        // Query keyword ids are the index's term ids; negative ones are in no indexed text
+        int[] termIds = plan.getFeatures().getKeywordIds();
+        PostingsList[] termPostings = new PostingsList[termIds.length];
+        long postingCount = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            termPostings[i] = index.getPostings(termIds[i]);
+            if (termPostings[i] != null) postingCount += termPostings[i].size();
+        }
+
+        // Only chunks in the query's postings get a score, so the table is sized by those
+        ChunkScores bm25Scores = new ChunkScores((int) Math.min(postingCount, chunks.size()));
+        for (int i = 0; i < termIds.length; i++) {
+            if (termPostings[i] == null) continue;
+
+            // Unlike the postings, the statistics no longer count chunks of removed documents
+            double idf = corpusStats.idf(termIds[i]);
+            PostingsList.Cursor cursor = termPostings[i].cursor();
+            while (cursor.next()) {
+                int chunkId = cursor.chunkId();
+                if (index.isDeleted(chunkId)) continue;
+                int tf = cursor.termFrequency();
+                double lengthNorm = averageLength > 0 ? chunks.get(chunkId).getTermCount() / averageLength : 1.0;
+                bm25Scores.add(chunkId, idf * (tf * (BM25_K1 + 1)) / (tf + BM25_K1 * (1 - BM25_B + BM25_B * lengthNorm)));
+            }
+        }
+
+        if (bm25Scores.isEmpty()) {
+            return findCandidateChunks(index, plan);
+        }
+
+        // The chunk id tie-break ranks the same regardless of the table's iteration order
+        TopKCollector<DocumentChunk> pool = new TopKCollector<>(Math.min(poolSize, bm25Scores.size()));
+        ChunkScores.Cursor cursor = bm25Scores.cursor();
+        while (cursor.next()) {
+            if (cursor.score() > 0) {
+                pool.offer(chunks.get(cursor.chunkId()), cursor.score(), cursor.chunkId());
+            }
+        }
+        return pool.toSortedList();
+    }
+
+    /**
+     * Runs the query in both modes and returns the fraction of the exhaustive top-K that the
+     * two-stage mode also returned. The returned stats are those of the two-stage run.
+     */
+    public double measureTwoStageRecall(String query, int topK) {
+        List<DocumentChunk> exhaustive = retrieveRelevantChunks(query, topK, RetrievalMode.EXHAUSTIVE);
+        long exhaustiveNanos = lastRetrievalStats != null ? lastRetrievalStats.getTotalNanos() : 0;
+        List<DocumentChunk> twoStage = retrieveRelevantChunks(query, topK, RetrievalMode.TWO_STAGE);
+
+        if (exhaustive.isEmpty()) {
+            return 1.0;
+        }
+
+        Set<DocumentChunk> found = new HashSet<>(twoStage);
+        int hits = 0;
+        for (DocumentChunk chunk : exhaustive) {
+            if (found.contains(chunk)) hits++;
+        }
+
+        double recall = (double) hits / exhaustive.size();
+        if (lastRetrievalStats != null) {
+            lastRetrievalStats.setRecall(recall, exhaustiveNanos);
+            Log.d("VectorStore", "Two-stage retrieval: " + lastRetrievalStats);
+        }
+        return recall;
+    }
+
+    /**
+     * Collects the chunks that share at least one stemmed keyword, or a synonym of one, with
+     * the query. Falls back to every chunk when the query has no indexed keyword (e.g. only
+     * stop words), so such questions still get the full scoring pass.
+     */
+    private Collection<DocumentChunk> findCandidateChunks(IndexSnapshot index, QueryPlan plan) {
+        Set<DocumentChunk> candidates = new LinkedHashSet<>();
+        for (String term : plan.getExpandedTerms()) {
+            PostingsList postings = index.getPostings(term);
+            if (postings == null) continue;
+
+            PostingsList.Cursor cursor = postings.cursor();
+            while (cursor.next()) {
+                if (!index.isDeleted(cursor.chunkId())) {
+                    candidates.add(index.chunks.get(cursor.chunkId()));
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return index.liveChunks();
+        }
+        return candidates;
     }
 
     private String generateAnswer(String question, List<DocumentChunk> relevantChunks) {
+        IndexSnapshot index = snapshot.get();
         StringBuilder answer = new StringBuilder();
 
         // Check if it's a direct factual question
@@ -114,7 +628,8 @@ public class VectorStore {
             DocumentChunk chunk = relevantChunks.get(i);
             String relevantPart = extractRelevantPart(question, chunk.getContent());
 
-            answer.append("From ").append(chunk.getDocumentName()).append(":\n");
+            // A collapsed near-duplicate names every document it appeared in
+            answer.append("From ").append(String.join(", ", index.sourceDocuments(chunk))).append(":\n");
             answer.append(relevantPart).append("\n\n");
         }
 
@@ -224,7 +739,7 @@ public class VectorStore {
     }
 
     private boolean hasKeywordsFromQuestion(String question, String sentence) {
-        String[] questionWords = question.toLowerCase().split("\\s+");
+        String[] questionWords = Tokenizer.splitWhitespace(question.toLowerCase());
         String lowerSentence = sentence.toLowerCase();
 
         int matchCount = 0;
@@ -238,10 +753,7 @@ public class VectorStore {
     }
 
     private boolean isStopWord(String word) {
-        String[] stopWords = {"is", "are", "was", "were", "the", "a", "an", "and", "or", "but",
-                "in", "on", "at", "to", "for", "of", "with", "by", "how", "what",
-                "when", "where", "why", "who", "which", "that", "this", "these", "those"};
-        return Arrays.asList(stopWords).contains(word.toLowerCase());
+        return STOP_WORDS.contains(word.toLowerCase());
     }
 
     private String extractRelevantPart(String question, String content) {
@@ -263,7 +775,7 @@ public class VectorStore {
     }
 
     private boolean isRelevantSentence(String question, String sentence) {
-        String[] questionWords = question.toLowerCase().split("\\s+");
+        String[] questionWords = Tokenizer.splitWhitespace(question.toLowerCase());
         String lowerSentence = sentence.toLowerCase();
 
         int relevantWords = 0;
@@ -278,73 +790,130 @@ public class VectorStore {
 
     private List<DocumentChunk> createSmartChunks(DocumentItem document, String content) {
         List<DocumentChunk> documentChunks = new ArrayList<>();
+        // Chunks are ranges of this one shared text instead of copies of it
+        DocumentText text = DocumentText.of(content);
 
         // First, try to split by paragraphs
-        String[] paragraphs = content.split("\n\n+");
+        Matcher paragraphBreaks = PARAGRAPH_BREAK.matcher(content);
+        int paragraphStart = 0;
+        boolean more = true;
+
+        while (more) {
+            int paragraphEnd;
+            if (paragraphBreaks.find()) {
+                paragraphEnd = paragraphBreaks.start();
+            } else {
+                paragraphEnd = content.length();
+                more = false;
+            }
 
-        for (String paragraph : paragraphs) {
-            paragraph = paragraph.trim();
-            if (paragraph.isEmpty()) continue;
+            int start = trimStart(content, paragraphStart, paragraphEnd);
+            int end = trimEnd(content, start, paragraphEnd);
+            if (more) paragraphStart = paragraphBreaks.end();
+            if (start == end) continue;
 
-            if (paragraph.length() <= CHUNK_SIZE) {
+            if (end - start <= CHUNK_SIZE) {
                 // Paragraph fits in one chunk
-                documentChunks.add(new DocumentChunk(document.getFileName(), paragraph, document.getFileType()));
+                documentChunks.add(new DocumentChunk(document.getFileName(), text, start, end, document.getFileType()));
             } else {
                 // Split large paragraphs by sentences
-                List<DocumentChunk> sentenceChunks = splitBySentences(document.getFileName(), paragraph, document.getFileType());
+                List<DocumentChunk> sentenceChunks = splitBySentences(document.getFileName(), text, content, start, end, document.getFileType());
                 documentChunks.addAll(sentenceChunks);
             }
         }
 
         // If no paragraphs found, fall back to sentence-based chunking
         if (documentChunks.isEmpty()) {
-            documentChunks = splitBySentences(document.getFileName(), content, document.getFileType());
+            documentChunks = splitBySentences(document.getFileName(), text, content, 0, content.length(), document.getFileType());
+        }
+
+        // Query-independent features are computed once here instead of on every query
+        for (DocumentChunk chunk : documentChunks) {
+            SimpleNLP.TextFeatures features = nlpProcessor.indexText(chunk.getContent());
+            chunk.setFeatures(nlpProcessor, features, calculateKeywordBoost(features.getLowerText()),
+                    calculateQuestionCues(features.getLowerText()));
+        }
+
+        // Once analyzed, the text is only read back for answers, so it is kept compressed
+        if (compressContent && !documentChunks.isEmpty()) {
+            DocumentText compressed = DocumentText.compressed(contentStore.compress(content));
+            for (DocumentChunk chunk : documentChunks) {
+                chunk.setText(compressed);
+            }
+        }
+        if (!documentChunks.isEmpty()) {
+            // A new document counts as just queried, so it is not the first to be evicted
+            documentChunks.get(0).getText().touch(accessClock.incrementAndGet());
         }
 
         return documentChunks;
     }
 
-    private List<DocumentChunk> splitBySentences(String documentName, String content, String fileType) {
+    /**
+     * Groups the sentences of content[start, end) into chunks of about CHUNK_SIZE chars that
+     * overlap by up to two sentences. Sentences are tracked as [start, end) ranges, so the
+     * overlap is shared with the previous chunk rather than copied into the next one.
+     */
+    private List<DocumentChunk> splitBySentences(String documentName, DocumentText text, String content,
+                                                 int start, int end, String fileType) {
         List<DocumentChunk> chunks = new ArrayList<>();
 
         // Split by sentences (improved regex)
-        String[] sentences = content.split("(?<=[.!?])\\s+");
-
-        StringBuilder currentChunk = new StringBuilder();
-        List<String> currentSentences = new ArrayList<>();
+        Matcher sentenceBreaks = SENTENCE_BREAK.matcher(content);
+        sentenceBreaks.region(start, end);
+
+        // Length the chunk would have with its sentences joined by single spaces
+        int chunkLength = 0;
+        int chunkStart = -1;
+        int chunkEnd = -1;
+        List<int[]> currentSentences = new ArrayList<>();
+        int sentenceStart = start;
+        boolean more = true;
+
+        while (more) {
+            int sentenceEnd;
+            if (sentenceBreaks.find()) {
+                sentenceEnd = sentenceBreaks.start();
+            } else {
+                sentenceEnd = end;
+                more = false;
+            }
 
-        for (String sentence : sentences) {
-            sentence = sentence.trim();
-            if (sentence.isEmpty()) continue;
+            int from = trimStart(content, sentenceStart, sentenceEnd);
+            int to = trimEnd(content, from, sentenceEnd);
+            if (more) sentenceStart = sentenceBreaks.end();
+            if (from == to) continue;
 
             // Check if adding this sentence would exceed chunk size
-            if (currentChunk.length() + sentence.length() + 1 > CHUNK_SIZE && currentChunk.length() > 0) {
+            if (chunkLength + (to - from) + 1 > CHUNK_SIZE && chunkLength > 0) {
                 // Create chunk with current sentences
-                chunks.add(new DocumentChunk(documentName, currentChunk.toString().trim(), fileType));
+                chunks.add(new DocumentChunk(documentName, text, chunkStart, chunkEnd, fileType));
 
                 // Start new chunk with overlap
-                currentChunk = new StringBuilder();
                 currentSentences = createOverlappedStart(currentSentences);
-
-                // Add overlapped sentences to new chunk
-                for (String overlappedSentence : currentSentences) {
-                    currentChunk.append(overlappedSentence).append(" ");
+                chunkLength = 0;
+                chunkStart = -1;
+                for (int[] overlappedSentence : currentSentences) {
+                    if (chunkStart < 0) chunkStart = overlappedSentence[0];
+                    chunkLength += overlappedSentence[1] - overlappedSentence[0] + 1;
                 }
             }
 
-            currentChunk.append(sentence).append(" ");
-            currentSentences.add(sentence);
+            if (chunkStart < 0) chunkStart = from;
+            chunkEnd = to;
+            chunkLength += (to - from) + 1;
+            currentSentences.add(new int[]{from, to});
         }
 
         // Add the last chunk if it has content
-        if (currentChunk.length() > 0) {
-            chunks.add(new DocumentChunk(documentName, currentChunk.toString().trim(), fileType));
+        if (chunkLength > 0) {
+            chunks.add(new DocumentChunk(documentName, text, chunkStart, chunkEnd, fileType));
         }
 
         return chunks;
     }
 
-    private List<String> createOverlappedStart(List<String> sentences) {
+    private List<int[]> createOverlappedStart(List<int[]> sentences) {
         if (sentences.size() <= 1) return new ArrayList<>();
 
         // Take last 1-2 sentences for overlap
@@ -352,77 +921,135 @@ public class VectorStore {
         return new ArrayList<>(sentences.subList(overlapStart, sentences.size()));
     }
 
-    private double calculateEnhancedSimilarity(String query, DocumentChunk chunk) {
-        String chunkContent = chunk.getContent();
+    // Start of content[start, end) after skipping what String.trim would remove
+    private static int trimStart(String content, int start, int end) {
+        while (start < end && content.charAt(start) <= ' ') start++;
+        return start;
+    }
 
-        // Basic similarity score
-        double basicScore = nlpProcessor.calculateSimilarity(query, chunkContent);
+    private static int trimEnd(String content, int start, int end) {
+        while (end > start && content.charAt(end - 1) <= ' ') end--;
+        return end;
+    }
 
-        // Boost score for exact matches
-        double exactMatchBoost = calculateExactMatchBoost(query, chunkContent);
+    private double calculateEnhancedSimilarity(QueryPlan plan, DocumentChunk chunk) {
+        return calculateEnhancedSimilarity(plan, chunk, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Weighted sum of bounded components, evaluated cheapest first. Once the best total the
+     * chunk could still reach falls below threshold (the current k-th best score) it is
+     * skipped and NaN is returned, so the SimpleNLP similarity only runs on chunks that can
+     * still make the result list.
+     */
+    private double calculateEnhancedSimilarity(QueryPlan plan, DocumentChunk chunk, double threshold) {
+        // Fetched once; for chunks without cached features this is the compact record, not the text
+        SimpleNLP.TextFeatures features = chunk.getTermFeatures();
 
         // Boost score for important keywords
-        double keywordBoost = calculateKeywordBoost(query, chunkContent);
+        double keywordBoost = chunk.getKeywordBoost();
 
         // Boost score for document title relevance
-        double titleBoost = calculateTitleBoost(query, chunk.getDocumentName());
+        double titleBoost = calculateTitleBoost(plan, chunk.getDocumentName());
 
         // Boost score for question-specific terms
-        double questionBoost = calculateQuestionSpecificBoost(query, chunkContent);
+        double questionBoost = calculateQuestionSpecificBoost(plan, chunk.getQuestionCues());
+
+        double basicUpperBound = plan.getSimilarityUpperBound(features);
+        double partialScore = keywordBoost * 0.15 + titleBoost * 0.1 + questionBoost * 0.1;
+        if (cannotReach(partialScore + MAX_EXACT_MATCH_BOOST * 0.25 + basicUpperBound * 0.4, threshold)) {
+            return Double.NaN;
+        }
+
+        // Boost score for exact matches
+        double exactMatchBoost = calculateExactMatchBoost(plan, features);
+        if (cannotReach(partialScore + exactMatchBoost * 0.25 + basicUpperBound * 0.4, threshold)) {
+            return Double.NaN;
+        }
+
+        // Basic similarity score
+        double basicScore = nlpProcessor.calculateSimilarity(plan, features);
 
         // Combine scores with weights
         return basicScore * 0.4 + exactMatchBoost * 0.25 + keywordBoost * 0.15 +
                 titleBoost * 0.1 + questionBoost * 0.1;
     }
 
-    private double calculateQuestionSpecificBoost(String query, String content) {
-        String lowerQuery = query.toLowerCase();
-        String lowerContent = content.toLowerCase();
+    // The epsilon keeps rounding differences from pruning a chunk that would tie the threshold
+    private static boolean cannotReach(double upperBound, double threshold) {
+        return upperBound + 1e-9 < threshold;
+    }
 
+    private double calculateQuestionSpecificBoost(QueryPlan plan, int questionCues) {
         // Boost for question words and their related content
-        if (lowerQuery.contains("what") && (lowerContent.contains("definition") || lowerContent.contains("meaning"))) {
+        if (plan.asksWhat() && (questionCues & QUESTION_CUE_DEFINITION) != 0) {
             return 0.3;
         }
-        if (lowerQuery.contains("how") && (lowerContent.contains("process") || lowerContent.contains("method"))) {
+        if (plan.asksHow() && (questionCues & QUESTION_CUE_PROCESS) != 0) {
             return 0.3;
         }
-        if (lowerQuery.contains("why") && (lowerContent.contains("because") || lowerContent.contains("reason"))) {
+        if (plan.asksWhy() && (questionCues & QUESTION_CUE_REASON) != 0) {
             return 0.3;
         }
-        if (lowerQuery.contains("when") && (lowerContent.contains("date") || lowerContent.contains("time"))) {
+        if (plan.asksWhen() && (questionCues & QUESTION_CUE_TIME) != 0) {
             return 0.3;
         }
 
         return 0.0;
     }
 
-    private double calculateExactMatchBoost(String query, String content) {
-        String lowerQuery = query.toLowerCase();
-        String lowerContent = content.toLowerCase();
+    // Query-independent like the keyword boost, so the text is not scanned on every query
+    private static int calculateQuestionCues(String lowerContent) {
+        int cues = 0;
+        if (lowerContent.contains("definition") || lowerContent.contains("meaning")) {
+            cues |= QUESTION_CUE_DEFINITION;
+        }
+        if (lowerContent.contains("process") || lowerContent.contains("method")) {
+            cues |= QUESTION_CUE_PROCESS;
+        }
+        if (lowerContent.contains("because") || lowerContent.contains("reason")) {
+            cues |= QUESTION_CUE_REASON;
+        }
+        if (lowerContent.contains("date") || lowerContent.contains("time")) {
+            cues |= QUESTION_CUE_TIME;
+        }
+        return cues;
+    }
 
+    /**
+     * 1 if the chunk contains the query as a phrase, else the share of query words it contains
+     * as whole tokens, raised towards 1 the closer together those words are. Works on the
+     * chunk's token positions, so no text is scanned.
+     */
+    private double calculateExactMatchBoost(QueryPlan plan, SimpleNLP.TextFeatures chunkFeatures) {
+        TokenPositions positions = chunkFeatures.getTokenPositions();
         // Check for exact phrase matches
-        if (lowerContent.contains(lowerQuery)) {
+        if (positions.containsPhrase(plan.getTokenIds())) {
             return 1.0;
         }
 
         // Check for exact word matches
-        String[] queryWords = lowerQuery.split("\\s+");
         int exactMatches = 0;
 
-        for (String word : queryWords) {
-            if (word.length() > 2 && !isStopWord(word) && lowerContent.contains(" " + word + " ")) {
+        for (int id : plan.getExactMatchIds()) {
+            if (positions.contains(id)) {
                 exactMatches++;
             }
         }
+        if (plan.getTokenCount() == 0) return 0.0;
 
-        return queryWords.length > 0 ? (double) exactMatches / queryWords.length : 0.0;
+        double boost = (double) exactMatches / plan.getTokenCount();
+        if (exactMatches >= 2) {
+            boost += (1.0 - boost) * PROXIMITY_WEIGHT * positions.proximity(plan.getExactMatchIds());
+        }
+        return boost;
     }
 
-    private double calculateKeywordBoost(String query, String content) {
+    // Query-independent, so it is computed once per chunk in createSmartChunks
+    private double calculateKeywordBoost(String lowerContent) {
         // List of important keywords that should boost relevance
         String[] importantKeywords = {"important", "key", "main", "primary", "essential", "crucial", "significant", "definition", "meaning"};
 
-        String lowerContent = content.toLowerCase();
         int keywordCount = 0;
 
         for (String keyword : importantKeywords) {
@@ -434,80 +1061,257 @@ public class VectorStore {
         return Math.min(keywordCount * 0.1, 0.5); // Cap at 0.5
     }
 
-    private double calculateTitleBoost(String query, String documentName) {
+    private double calculateTitleBoost(QueryPlan plan, String documentName) {
         if (documentName == null) return 0.0;
 
-        return nlpProcessor.calculateSimilarity(query, documentName) * 0.3;
+        return plan.getTitleSimilarity(documentName) * 0.3;
     }
 
     public void clearChunks() {
-        chunks.clear();
+        synchronized (writeLock) {
+            snapshot.set(IndexSnapshot.empty(terms));
+        }
+        schedulePersist();
+    }
+
+    public boolean isDeduplicateChunks() {
+        return deduplicateChunks;
+    }
+
+    /**
+     * Indexes a chunk that near-duplicates an existing one (e.g. the same paragraph in another
+     * version of a report) as an alias of it instead of as a separate entry, for documents
+     * added from now on. Answers then name all documents the passage appeared in.
+     */
+    public void setDeduplicateChunks(boolean deduplicateChunks) {
+        this.deduplicateChunks = deduplicateChunks;
+    }
+
+    // Chunks collapsed into an earlier near-duplicate and therefore not retrievable on their own
+    public int getDuplicateChunkCount() {
+        return snapshot.get().duplicates.size();
+    }
+
+    public int getIndexedTermCount() {
+        return snapshot.get().indexedTermCount;
+    }
+
+    public RetrievalMode getRetrievalMode() {
+        return retrievalMode;
+    }
+
+    public void setRetrievalMode(RetrievalMode retrievalMode) {
+        this.retrievalMode = retrievalMode;
+    }
+
+    public boolean isParallelScoring() {
+        return parallelScoring;
+    }
+
+    // Large candidate sets are scored on the common ForkJoinPool; small ones always stay sequential
+    public void setParallelScoring(boolean parallelScoring) {
+        this.parallelScoring = parallelScoring;
+    }
+
+    public boolean isDynamicPruning() {
+        return dynamicPruning;
+    }
+
+    // Skips chunks whose best possible score cannot enter the current top-K
+    public void setDynamicPruning(boolean dynamicPruning) {
+        this.dynamicPruning = dynamicPruning;
+    }
+
+    public int getCandidatePoolSize() {
+        return candidatePoolSize;
+    }
+
+    public void setCandidatePoolSize(int candidatePoolSize) {
+        this.candidatePoolSize = Math.max(1, candidatePoolSize);
+    }
+
+    public RetrievalStats getLastRetrievalStats() {
+        return lastRetrievalStats;
+    }
+
+    public boolean isCompressContent() {
+        return compressContent;
+    }
+
+    // Keeps the text of documents added from now on in Deflate-compressed blocks
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
+    // Block cache statistics of the compressed text
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+    public boolean isOffHeapStorage() {
+        return offHeapStorage;
+    }
+
+    /**
+     * Keeps chunk text and postings in the memory-mapped index file instead of on the heap, and
+     * stops caching chunk features, which are then recomputed for each scored candidate (best
+     * combined with TWO_STAGE retrieval). Needs an attached index file: each save swaps the
+     * mapped copy in. Best set before attachIndexFile; turning it off affects new documents only
+     * until the next restart.
+     */
+    public void setOffHeapStorage(boolean offHeapStorage) {
+        this.offHeapStorage = offHeapStorage;
+        if (offHeapStorage) {
+            schedulePersist();
+        }
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget.getBudgetBytes();
+    }
+
+    /**
+     * Caps the estimated heap held by the index, 0 for no limit. Over the budget, the least
+     * recently queried documents first have their text moved to the spill directory, then their
+     * cached features dropped; both come back transparently when needed. Postings always stay.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        memoryBudget.setBudgetBytes(budgetBytes);
+        scheduleBudgetCheck();
+    }
+
+    // Where evicted text goes; without one only features are evicted
+    public void setSpillDirectory(File directory) {
+        memoryBudget.setSpillDirectory(directory);
+    }
+
+    void setExtractionCache(ExtractionCache cache) {
+        this.extractionCache = cache;
+    }
+
+    /**
+     * Estimates the memory held by the current index per tier: Java heap, mapped buffers outside
+     * it and spill files on disk. Walks every chunk and postings list, so use it for diagnostics
+     * and not on every query.
+     */
+    public MemoryUsage getMemoryUsage() {
+        return MemoryBudget.measure(snapshot.get());
+    }
+
+    // Same estimate per document name; index bytes are the document's share by term count
+    public Map<String, MemoryUsage> getDocumentMemoryUsage() {
+        return MemoryBudget.measureByDocument(snapshot.get());
     }
 
     public int getChunkCount() {
-        return chunks.size();
+        return snapshot.get().liveChunkCount();
     }
 
     public List<String> getAllChunks() {
-        return chunks.stream()
+        return snapshot.get().liveChunks().stream()
                 .map(DocumentChunk::getContent)
                 .collect(Collectors.toList());
     }
 
+    // From the document ranges, since a document made only of near-duplicates has no live chunks
     public List<String> getDocumentNames() {
-        return chunks.stream()
-                .map(DocumentChunk::getDocumentName)
+        return snapshot.get().documentRanges.keySet().stream()
+                .map(DocumentItem::getFileName)
                 .distinct()
                 .collect(Collectors.toList());
     }
 
-    // Inner class for document chunks
-    private static class DocumentChunk {
-        private String documentName;
-        private String content;
-        private String fileType;
-        private long timestamp;
-
-        public DocumentChunk(String documentName, String content, String fileType) {
-            this.documentName = documentName;
-            this.content = content;
-            this.fileType = fileType;
-            this.timestamp = System.currentTimeMillis();
+    // Estimated index memory, on the Java heap, in mapped buffers outside it and spilled to disk
+    public static class MemoryUsage {
+        private final long heapTextBytes;
+        private final long heapIndexBytes;
+        private final long heapFeatureBytes;
+        private final long offHeapBytes;
+        private final long spilledBytes;
+
+        MemoryUsage(long heapTextBytes, long heapIndexBytes, long heapFeatureBytes, long offHeapBytes,
+                    long spilledBytes) {
+            this.heapTextBytes = heapTextBytes;
+            this.heapIndexBytes = heapIndexBytes;
+            this.heapFeatureBytes = heapFeatureBytes;
+            this.offHeapBytes = offHeapBytes;
+            this.spilledBytes = spilledBytes;
         }
 
-        public String getDocumentName() {
-            return documentName;
-        }
+        public long getHeapTextBytes() { return heapTextBytes; }
+
+        // Postings and term dictionary
+        public long getHeapIndexBytes() { return heapIndexBytes; }
+
+        // Cached per-chunk features used by scoring
+        public long getHeapFeatureBytes() { return heapFeatureBytes; }
+        public long getHeapBytes() { return heapTextBytes + heapIndexBytes + heapFeatureBytes; }
+        public long getOffHeapBytes() { return offHeapBytes; }
 
-        public String getContent() {
-            return content;
+        // Text evicted to spill files by the memory budget
+        public long getSpilledBytes() { return spilledBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("MemoryUsage{heapMb=%.2f (text=%.2f, index=%.2f, features=%.2f), offHeapMb=%.2f, spilledMb=%.2f}",
+                    getHeapBytes() / 1048576.0, heapTextBytes / 1048576.0, heapIndexBytes / 1048576.0,
+                    heapFeatureBytes / 1048576.0, offHeapBytes / 1048576.0, spilledBytes / 1048576.0);
         }
+    }
 
-        public String getFileType() {
-            return fileType;
+    // Latency and recall report for the last retrieval
+    public static class RetrievalStats {
+        private final RetrievalMode mode;
+        private final int totalChunks;
+        private final int scoredChunks;
+        private final int prunedChunks;
+        private final long candidateNanos;
+        private final long rerankNanos;
+        private double recall = -1;
+        private long exhaustiveNanos = -1;
+
+        RetrievalStats(RetrievalMode mode, int totalChunks, int scoredChunks, int prunedChunks,
+                       long candidateNanos, long rerankNanos) {
+            this.mode = mode;
+            this.totalChunks = totalChunks;
+            this.scoredChunks = scoredChunks;
+            this.prunedChunks = prunedChunks;
+            this.candidateNanos = candidateNanos;
+            this.rerankNanos = rerankNanos;
         }
 
-        public long getTimestamp() {
-            return timestamp;
+        void setRecall(double recall, long exhaustiveNanos) {
+            this.recall = recall;
+            this.exhaustiveNanos = exhaustiveNanos;
         }
 
+        public RetrievalMode getMode() { return mode; }
+        public int getTotalChunks() { return totalChunks; }
+        public int getScoredChunks() { return scoredChunks; }
+
+        // Candidates skipped by dynamic pruning before the full similarity was computed
+        public int getPrunedChunks() { return prunedChunks; }
+        public long getCandidateNanos() { return candidateNanos; }
+        public long getRerankNanos() { return rerankNanos; }
+        public long getTotalNanos() { return candidateNanos + rerankNanos; }
+
+        // Fraction of the exhaustive top-K retained, or -1 if not measured
+        public double getRecall() { return recall; }
+        public long getExhaustiveNanos() { return exhaustiveNanos; }
+
         @Override
         public String toString() {
-            return "DocumentChunk{" +
-                    "documentName='" + documentName + '\'' +
-                    ", fileType='" + fileType + '\'' +
-                    ", contentLength=" + content.length() +
-                    ", timestamp=" + timestamp +
-                    '}';
+            return String.format("RetrievalStats{mode=%s, scored=%d/%d, pruned=%d, candidateMs=%.2f, rerankMs=%.2f, recall=%.2f, exhaustiveMs=%.2f}",
+                    mode, scoredChunks, totalChunks, prunedChunks, candidateNanos / 1e6, rerankNanos / 1e6,
+                    recall, exhaustiveNanos / 1e6);
         }
     }
 
     // Document processor for different file types
     private static class DocumentProcessor {
 
-        public String extractContent(DocumentItem document) {
+        public String extractContent(DocumentItem document, String content) {
             String fileType = document.getFileType();
-            String content = document.getContent();
 
             if (content == null || content.trim().isEmpty()) {
                 Log.w("DocumentProcessor", "Document content is null or empty for: " + document.getFileName());
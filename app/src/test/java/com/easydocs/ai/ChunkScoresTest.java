@@ -0,0 +1,62 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChunkScores sums the scores added for each chunk id and visits every id once, also after
+ * growing past the size it was created for.
+ */
+public class ChunkScoresTest {
+
+    @Test
+    public void empty_hasNoIds() {
+        ChunkScores scores = new ChunkScores(0);
+
+        assertTrue(scores.isEmpty());
+        assertEquals(0.0, scores.get(7), 0.0);
+        assertFalse(scores.cursor().next());
+    }
+
+    @Test
+    public void add_sumsScoresPerChunk() {
+        ChunkScores scores = new ChunkScores(4);
+        scores.add(3, 0.5);
+        scores.add(100000, 1.0);
+        scores.add(3, 0.25);
+
+        assertEquals(2, scores.size());
+        assertEquals(0.75, scores.get(3), 1e-12);
+        assertEquals(1.0, scores.get(100000), 1e-12);
+        assertEquals(0.0, scores.get(4), 0.0);
+    }
+
+    @Test
+    public void cursor_visitsEveryIdOnceAfterGrowing() {
+        Random random = new Random(11);
+        Map<Integer, Double> expected = new HashMap<>();
+        ChunkScores scores = new ChunkScores(2);
+        for (int i = 0; i < 5000; i++) {
+            int chunkId = random.nextInt(3000);
+            double score = random.nextDouble();
+            scores.add(chunkId, score);
+            expected.merge(chunkId, score, Double::sum);
+        }
+
+        assertEquals(expected.size(), scores.size());
+        Map<Integer, Double> visited = new HashMap<>();
+        ChunkScores.Cursor cursor = scores.cursor();
+        while (cursor.next()) {
+            assertNull(visited.put(cursor.chunkId(), cursor.score()));
+        }
+        assertEquals(expected.keySet(), visited.keySet());
+        for (Map.Entry<Integer, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), visited.get(entry.getKey()), 1e-9);
+        }
+    }
+}
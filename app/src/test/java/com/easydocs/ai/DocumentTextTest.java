@@ -0,0 +1,89 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of DocumentText.writeTo: chunk ranges converted to byte offsets must select the
+ * same text from the written bytes as they did from the original.
+ */
+public class DocumentTextTest {
+
+    @Test
+    public void writeTo_asciiKeepsCharOffsets() throws IOException {
+        String text = "First sentence. Second sentence.";
+        int[] offsets = {0, 15, 16, text.length()};
+
+        DocumentText written = roundTrip(text, offsets);
+
+        assertArrayEquals(new int[]{0, 15, 16, text.length()}, offsets);
+        assertEquals("Second sentence.", written.substring(offsets[2], offsets[3]));
+    }
+
+    @Test
+    public void writeTo_multiByteCharsAndSurrogatePairs() throws IOException {
+        String text = "Café naïve. 😀 smile 中文 end";
+        int[] ranges = {0, 11, 12, 21, 22, text.length()};
+        int[] offsets = ranges.clone();
+
+        DocumentText written = roundTrip(text, offsets);
+
+        for (int i = 0; i < ranges.length; i += 2) {
+            assertEquals(text.substring(ranges[i], ranges[i + 1]), written.substring(offsets[i], offsets[i + 1]));
+        }
+    }
+
+    @Test
+    public void writeTo_loneSurrogateWithOtherNonAscii() throws IOException {
+        // A lone surrogate, as PDF extraction sometimes produces, next to ordinary accented text
+        String text = "Résumé \uD800 broken. Next été chunk. \uDC00 last 😀 one.";
+        int firstEnd = text.indexOf("broken.") + "broken.".length();
+        int secondStart = text.indexOf("Next");
+        int secondEnd = text.indexOf("chunk.") + "chunk.".length();
+        int thirdStart = secondEnd + 1;
+        int[] ranges = {0, firstEnd, secondStart, secondEnd, thirdStart, text.length()};
+        int[] offsets = ranges.clone();
+
+        DocumentText written = roundTrip(text, offsets);
+
+        String expected = text.replace('\uD800', '?').replace('\uDC00', '?');
+        for (int i = 0; i < ranges.length; i += 2) {
+            assertEquals(expected.substring(ranges[i], ranges[i + 1]), written.substring(offsets[i], offsets[i + 1]));
+        }
+        assertEquals(written.length(), offsets[5]);
+    }
+
+    @Test
+    public void writeTo_rewritesOffsetsOfMappedText() throws IOException {
+        String text = "été \uD800 again";
+        int[] offsets = {0, text.length()};
+        DocumentText mapped = roundTrip(text, offsets);
+
+        int[] mappedOffsets = {offsets[0], offsets[1]};
+        DocumentText copy = roundTrip(mapped, mappedOffsets);
+
+        assertArrayEquals(offsets, mappedOffsets);
+        assertEquals(mapped.substring(0, mapped.length()), copy.substring(0, copy.length()));
+    }
+
+    private static DocumentText roundTrip(String text, int[] offsets) throws IOException {
+        return roundTrip(DocumentText.of(text), offsets);
+    }
+
+    // Writes text as an index file would and maps the result back
+    private static DocumentText roundTrip(DocumentText text, int[] offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int length = text.writeTo(out, offsets);
+        out.flush();
+
+        assertEquals(bytes.size(), length);
+        return DocumentText.mapped(ByteBuffer.wrap(bytes.toByteArray()), 0, length);
+    }
+}
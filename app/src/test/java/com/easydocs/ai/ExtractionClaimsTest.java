@@ -0,0 +1,113 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Only documents with extracted text reach the library, so a file whose extraction failed is
+ * not mistaken for a duplicate of itself when it is picked again.
+ */
+public class ExtractionClaimsTest {
+    private static final String HASH = "0123abcd";
+
+    private final Map<String, DocumentItem> library = new HashMap<>();
+    private final ExtractionClaims claims = new ExtractionClaims(library::get);
+
+    // Adds successful documents to the library, as DocumentManager does
+    private class RecordingCallback implements DocumentProcessor.ProcessingCallback {
+        final List<DocumentItem> added = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onSuccess(DocumentItem document) {
+            added.add(document);
+            library.put(document.getContentHash(), document);
+        }
+
+        @Override
+        public void onDuplicate(DocumentItem existing) {
+        }
+
+        @Override
+        public void onError(String error) {
+            errors.add(error);
+        }
+
+        @Override
+        public void onProgress(int progress) {
+        }
+    }
+
+    private static DocumentItem document(String content) {
+        DocumentItem document = new DocumentItem("report.pdf", null);
+        document.setContentHash(HASH);
+        document.setContent(content);
+        return document;
+    }
+
+    @Test
+    public void extractOnce_retriesFileWhoseExtractionFailed() throws Exception {
+        int[] extractions = new int[1];
+        RecordingCallback callback = new RecordingCallback();
+
+        DocumentItem existing = claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document("");
+        }, callback);
+        assertNull(existing);
+        assertEquals(1, callback.errors.size());
+        assertTrue(callback.added.isEmpty());
+        assertTrue(library.isEmpty());
+
+        existing = claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document("Quarterly revenue grew.");
+        }, callback);
+        assertNull(existing);
+        assertEquals(2, extractions[0]);
+        assertEquals(1, callback.added.size());
+    }
+
+    @Test
+    public void extractOnce_retriesFileWhoseExtractionReturnedNull() throws Exception {
+        int[] extractions = new int[1];
+        RecordingCallback callback = new RecordingCallback();
+
+        claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document(null);
+        }, callback);
+        claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document(null);
+        }, callback);
+
+        assertEquals(2, extractions[0]);
+        assertEquals(2, callback.errors.size());
+        assertTrue(library.isEmpty());
+    }
+
+    @Test
+    public void extractOnce_resolvesExtractedFileAsDuplicate() throws Exception {
+        int[] extractions = new int[1];
+        RecordingCallback callback = new RecordingCallback();
+
+        claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document("Quarterly revenue grew.");
+        }, callback);
+        DocumentItem existing = claims.extractOnce(HASH, () -> {
+            extractions[0]++;
+            return document("Quarterly revenue grew.");
+        }, callback);
+
+        assertEquals(1, extractions[0]);
+        assertSame(callback.added.get(0), existing);
+    }
+}
@@ -0,0 +1,80 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sorted-array merges behind keyword overlap must agree with the HashSet intersection
+ * they replaced.
+ */
+public class KeywordIdSetTest {
+
+    @Test
+    public void intersectionSize_knownArrays() {
+        assertEquals(0, SimpleNLP.intersectionSize(new int[0], new int[0]));
+        assertEquals(0, SimpleNLP.intersectionSize(new int[]{1, 2, 3}, new int[0]));
+        assertEquals(0, SimpleNLP.intersectionSize(new int[]{1, 3, 5}, new int[]{0, 2, 4, 6}));
+        assertEquals(3, SimpleNLP.intersectionSize(new int[]{1, 3, 5}, new int[]{1, 3, 5}));
+        assertEquals(2, SimpleNLP.intersectionSize(new int[]{0, 4, 9, 100}, new int[]{4, 5, 100, 101}));
+    }
+
+    @Test
+    public void jaccard_knownArrays() {
+        assertEquals(0.0, SimpleNLP.jaccard(new int[0], new int[0]), 0.0);
+        assertEquals(0.0, SimpleNLP.jaccard(new int[]{1}, new int[0]), 0.0);
+        assertEquals(1.0, SimpleNLP.jaccard(new int[]{2, 7}, new int[]{2, 7}), 0.0);
+        assertEquals(2.0 / 6.0, SimpleNLP.jaccard(new int[]{0, 4, 9, 100}, new int[]{4, 5, 100, 101}), 1e-12);
+    }
+
+    @Test
+    public void intersectionAndJaccard_matchHashSets() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            // Small universes give heavy overlap, large ones almost none
+            int universe = 1 + random.nextInt(round % 2 == 0 ? 50 : 5000);
+            int[] ids1 = randomSortedIds(random, universe, random.nextInt(60));
+            int[] ids2 = randomSortedIds(random, universe, random.nextInt(60));
+
+            Set<Integer> set1 = toSet(ids1);
+            Set<Integer> common = toSet(ids1);
+            common.retainAll(toSet(ids2));
+            Set<Integer> union = toSet(ids2);
+            union.addAll(set1);
+            double expectedJaccard = union.isEmpty() ? 0.0 : (double) common.size() / union.size();
+
+            String arrays = Arrays.toString(ids1) + " " + Arrays.toString(ids2);
+            assertEquals(arrays, common.size(), SimpleNLP.intersectionSize(ids1, ids2));
+            assertEquals(arrays, common.size(), SimpleNLP.intersectionSize(ids2, ids1));
+            assertEquals(arrays, expectedJaccard, SimpleNLP.jaccard(ids1, ids2), 1e-12);
+        }
+    }
+
+    // Distinct ascending ids below universe, as TextFeatures stores keyword ids
+    private static int[] randomSortedIds(Random random, int universe, int count) {
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(random.nextInt(universe));
+        }
+        int[] sorted = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            sorted[i++] = id;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static Set<Integer> toSet(int[] ids) {
+        Set<Integer> set = new HashSet<>();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
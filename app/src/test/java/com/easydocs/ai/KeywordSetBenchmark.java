@@ -0,0 +1,163 @@
+package com.easydocs.ai;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Host-side benchmark of the per-chunk keyword comparisons done on every query: Jaccard and
+ * TF-IDF cosine over HashSet/HashMap keywords (the previous implementation, copied here) against
+ * the linear merge over sorted keyword id arrays now used by SimpleNLP. The merge runs with
+ * CorpusStats.EMPTY, whose uniform IDF leaves the same cosine as the hash version.
+ * Reports ns/op and bytes/op, where an op compares one query with one chunk.
+ *
+ * Run from the IDE or with: java -cp <test classes>:<main classes> com.easydocs.ai.KeywordSetBenchmark
+ * Optional args: chunk count (default 20000), keywords per chunk (default 40).
+ */
+public class KeywordSetBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 20;
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final int QUERY_KEYWORDS = 6;
+
+    public static void main(String[] args) {
+        int chunkCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int keywordsPerChunk = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+        Random random = new Random(42);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "term" + i;
+        }
+
+        final KeywordSet query = randomSet(random, vocabulary, QUERY_KEYWORDS);
+        final List<KeywordSet> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(randomSet(random, vocabulary, keywordsPerChunk));
+        }
+
+        System.out.println(chunkCount + " chunks of " + keywordsPerChunk + " keywords, query of " + QUERY_KEYWORDS);
+        report("jaccard hash", chunkCount, measure(() -> {
+            double sum = 0;
+            for (KeywordSet chunk : chunks) sum += hashJaccard(query.keywords, chunk.keywords);
+            return sum;
+        }));
+        report("jaccard merge", chunkCount, measure(() -> {
+            double sum = 0;
+            for (KeywordSet chunk : chunks) sum += SimpleNLP.jaccard(query.ids, chunk.ids);
+            return sum;
+        }));
+        report("cosine hash", chunkCount, measure(() -> {
+            double sum = 0;
+            for (KeywordSet chunk : chunks) sum += hashCosine(query.weights, chunk.weights);
+            return sum;
+        }));
+        report("cosine merge", chunkCount, measure(() -> {
+            double sum = 0;
+            for (KeywordSet chunk : chunks) {
+                sum += SimpleNLP.tfIdfCosine(query.ids, query.idWeights, chunk.ids, chunk.idWeights, CorpusStats.EMPTY);
+            }
+            return sum;
+        }));
+    }
+
+    // Skewed towards low ids, so queries and chunks share common terms
+    private static KeywordSet randomSet(Random random, String[] vocabulary, int size) {
+        Map<Integer, Double> picked = new HashMap<>();
+        while (picked.size() < size) {
+            int id = (int) (vocabulary.length * Math.pow(random.nextDouble(), 3));
+            picked.put(id, random.nextDouble());
+        }
+
+        KeywordSet set = new KeywordSet();
+        set.ids = new int[picked.size()];
+        set.idWeights = new double[picked.size()];
+        int index = 0;
+        for (int id : new TreeSet<>(picked.keySet())) {
+            set.ids[index] = id;
+            set.idWeights[index++] = picked.get(id);
+            set.keywords.add(vocabulary[id]);
+            set.weights.put(vocabulary[id], picked.get(id));
+        }
+        return set;
+    }
+
+    private static class KeywordSet {
+        final Set<String> keywords = new HashSet<>();
+        final Map<String, Double> weights = new HashMap<>();
+        int[] ids;
+        double[] idWeights;
+    }
+
+    private static double hashJaccard(Set<String> words1, Set<String> words2) {
+        Set<String> intersection = new HashSet<>(words1);
+        intersection.retainAll(words2);
+
+        Set<String> union = new HashSet<>(words1);
+        union.addAll(words2);
+
+        if (union.isEmpty()) return 0.0;
+        return (double) intersection.size() / union.size();
+    }
+
+    // Previous cosine: norms over the weight maps, dot product through lookups in the larger map
+    private static double hashCosine(Map<String, Double> smaller, Map<String, Double> larger) {
+        double norm1 = 0.0;
+        for (double weight : smaller.values()) norm1 += weight * weight;
+        double norm2 = 0.0;
+        for (double weight : larger.values()) norm2 += weight * weight;
+
+        double dotProduct = 0.0;
+        for (Map.Entry<String, Double> entry : smaller.entrySet()) {
+            Double other = larger.get(entry.getKey());
+            if (other != null) {
+                dotProduct += entry.getValue() * other;
+            }
+        }
+        return norm1 == 0.0 || norm2 == 0.0 ? 0.0 : dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
+
+    private interface Pass {
+        double run();
+    }
+
+    // Best-of time and allocated bytes of one pass; the checksum keeps the JIT from dropping it
+    private static long[] measure(Pass pass) {
+        double checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += pass.run();
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += pass.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            bestBytes = Math.min(bestBytes, allocatedBytes() - bytesBefore);
+        }
+        if (checksum == 42) System.out.println();
+        return new long[]{bestNanos, bestBytes};
+    }
+
+    // Bytes allocated by this thread so far, -1 where the JVM can't tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void report(String variant, int operations, long[] result) {
+        System.out.println(String.format("%-14s %8.2f ns/op  %8.1f bytes/op",
+                variant, (double) result[0] / operations, (double) result[1] / operations));
+    }
+}
@@ -0,0 +1,86 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PorterStemmer against the examples of Porter's 1980 paper, which the reference
+ * implementation reproduces, and the StemCache in front of it.
+ */
+public class PorterStemmerTest {
+
+    private static final String[][] EXAMPLES = {
+            // Step 1a: plurals
+            {"caresses", "caress"}, {"ponies", "poni"}, {"ties", "ti"}, {"caress", "caress"}, {"cats", "cat"},
+            // Step 1b: -ed and -ing, with the clean-up of what remains
+            {"feed", "feed"}, {"agreed", "agre"}, {"plastered", "plaster"}, {"bled", "bled"},
+            {"motoring", "motor"}, {"sing", "sing"}, {"conflated", "conflat"}, {"troubled", "troubl"},
+            {"sized", "size"}, {"hopping", "hop"}, {"tanned", "tan"}, {"falling", "fall"},
+            {"hissing", "hiss"}, {"fizzed", "fizz"}, {"failing", "fail"}, {"filing", "file"},
+            // Step 1c: y to i
+            {"happy", "happi"}, {"sky", "sky"},
+            // Steps 2 to 4: double, single and bare suffixes
+            {"relational", "relat"}, {"conditional", "condit"}, {"rational", "ration"},
+            {"hesitanci", "hesit"}, {"digitizer", "digit"}, {"differentli", "differ"},
+            {"vietnamization", "vietnam"}, {"operator", "oper"}, {"decisiveness", "decis"},
+            {"hopefulness", "hope"}, {"sensibiliti", "sensibl"}, {"electrical", "electr"},
+            {"goodness", "good"}, {"allowance", "allow"}, {"inference", "infer"},
+            {"adjustable", "adjust"}, {"replacement", "replac"}, {"adoption", "adopt"},
+            {"communism", "commun"}, {"effective", "effect"}, {"bowdlerize", "bowdler"},
+            // Step 5: final e and ll
+            {"probate", "probat"}, {"rate", "rate"}, {"cease", "ceas"}, {"controll", "control"}, {"roll", "roll"},
+            // Several steps in a row
+            {"generalizations", "gener"}, {"oscillators", "oscil"}, {"running", "run"},
+            // Words of up to two letters are kept
+            {"is", "is"}, {"as", "as"}, {"a", "a"},
+    };
+
+    @Test
+    public void stem_matchesPorterExamples() {
+        PorterStemmer stemmer = new PorterStemmer();
+        for (String[] example : EXAMPLES) {
+            assertEquals(example[0], example[1], stem(stemmer, example[0]));
+        }
+    }
+
+    @Test
+    public void stem_worksInPlaceWithinALargerBuffer() {
+        PorterStemmer stemmer = new PorterStemmer();
+        char[] buffer = "hoppingXYZ".toCharArray();
+
+        int length = stemmer.stem(buffer, 7);
+
+        assertEquals("hop", new String(buffer, 0, length));
+        // Chars past the word are never touched
+        assertEquals("XYZ", new String(buffer, 7, 3));
+    }
+
+    @Test
+    public void stem_neverLengthensTheWord() {
+        PorterStemmer stemmer = new PorterStemmer();
+        for (String[] example : EXAMPLES) {
+            char[] chars = example[0].toCharArray();
+            assertTrue(example[0], stemmer.stem(chars, chars.length) <= chars.length);
+        }
+    }
+
+    @Test
+    public void stemCache_returnsStoredStemsOnly() {
+        StemCache cache = new StemCache(64);
+        char[] word = "caresses".toCharArray();
+        assertNull(cache.get(word, word.length));
+
+        cache.put("caresses", "caress");
+
+        assertEquals("caress", cache.get(word, word.length));
+        // A prefix of the cached word is a different word
+        assertNull(cache.get(word, word.length - 1));
+        assertNull(cache.get("relational".toCharArray(), 10));
+    }
+
+    private static String stem(PorterStemmer stemmer, String word) {
+        char[] chars = word.toCharArray();
+        return new String(chars, 0, stemmer.stem(chars, chars.length));
+    }
+}
@@ -0,0 +1,144 @@
+package com.easydocs.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Host-side benchmark comparing postings layouts for decode speed and memory footprint:
+ * boxed lists (what Map<String, List<...>> postings cost), plain int[] pairs, and the
+ * delta/varint PostingsList used by the index.
+ *
+ * Run from the IDE or with: java -cp <test classes>:<main classes> com.easydocs.ai.PostingsBenchmark
+ * Optional args: chunk count (default 200000), term count (default 20000).
+ */
+public class PostingsBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 20;
+
+    // Per-element footprint estimates for a 64-bit VM with compressed references
+    private static final int BOXED_BYTES_PER_VALUE = 4 + 16;
+    private static final int ARRAY_BYTES_PER_VALUE = 4;
+
+    public static void main(String[] args) {
+        int chunkCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int termCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        List<int[]> ids = new ArrayList<>();
+        List<int[]> frequencies = new ArrayList<>();
+        generatePostings(chunkCount, termCount, ids, frequencies);
+
+        List<List<Integer>> boxedIds = new ArrayList<>();
+        List<List<Integer>> boxedFrequencies = new ArrayList<>();
+        PostingsList[] encoded = new PostingsList[termCount];
+        long postingCount = 0;
+        long encodedBytes = 0;
+        for (int term = 0; term < termCount; term++) {
+            int[] termIds = ids.get(term);
+            int[] termFrequencies = frequencies.get(term);
+            List<Integer> idList = new ArrayList<>(termIds.length);
+            List<Integer> frequencyList = new ArrayList<>(termIds.length);
+            PostingsList.Builder builder = PostingsList.EMPTY.toBuilder();
+            for (int i = 0; i < termIds.length; i++) {
+                idList.add(termIds[i]);
+                frequencyList.add(termFrequencies[i]);
+                builder.add(termIds[i], termFrequencies[i]);
+            }
+            boxedIds.add(idList);
+            boxedFrequencies.add(frequencyList);
+            encoded[term] = builder.build();
+            postingCount += termIds.length;
+            encodedBytes += encoded[term].encodedLength();
+        }
+
+        System.out.println("Postings: " + postingCount + " over " + termCount + " terms and " + chunkCount + " chunks");
+        report("boxed list", postingCount * 2 * BOXED_BYTES_PER_VALUE, postingCount,
+                measure(() -> decodeBoxed(boxedIds, boxedFrequencies)));
+        report("int[] pairs", postingCount * 2 * ARRAY_BYTES_PER_VALUE, postingCount,
+                measure(() -> decodeArrays(ids, frequencies)));
+        report("varint delta", encodedBytes, postingCount,
+                measure(() -> decodeVarint(encoded)));
+    }
+
+    // Zipf-like document frequencies, so a few terms are in most chunks and most are rare
+    private static void generatePostings(int chunkCount, int termCount, List<int[]> ids, List<int[]> frequencies) {
+        Random random = new Random(42);
+        for (int term = 0; term < termCount; term++) {
+            int documentFrequency = Math.max(1, (int) (chunkCount * 0.5 / (term + 1)));
+            int[] termIds = new int[documentFrequency];
+            int[] termFrequencies = new int[documentFrequency];
+            double gap = (double) chunkCount / documentFrequency;
+            int chunkId = -1;
+            for (int i = 0; i < documentFrequency; i++) {
+                chunkId += 1 + (int) (random.nextDouble() * (2 * gap - 1));
+                termIds[i] = Math.min(chunkId, chunkCount - documentFrequency + i);
+                chunkId = termIds[i];
+                termFrequencies[i] = 1 + (random.nextInt(10) == 0 ? random.nextInt(20) : random.nextInt(3));
+            }
+            ids.add(termIds);
+            frequencies.add(termFrequencies);
+        }
+    }
+
+    private static long decodeBoxed(List<List<Integer>> ids, List<List<Integer>> frequencies) {
+        long checksum = 0;
+        for (int term = 0; term < ids.size(); term++) {
+            List<Integer> termIds = ids.get(term);
+            List<Integer> termFrequencies = frequencies.get(term);
+            for (int i = 0; i < termIds.size(); i++) {
+                checksum += termIds.get(i) + termFrequencies.get(i);
+            }
+        }
+        return checksum;
+    }
+
+    private static long decodeArrays(List<int[]> ids, List<int[]> frequencies) {
+        long checksum = 0;
+        for (int term = 0; term < ids.size(); term++) {
+            int[] termIds = ids.get(term);
+            int[] termFrequencies = frequencies.get(term);
+            for (int i = 0; i < termIds.length; i++) {
+                checksum += termIds[i] + termFrequencies[i];
+            }
+        }
+        return checksum;
+    }
+
+    private static long decodeVarint(PostingsList[] postings) {
+        long checksum = 0;
+        for (PostingsList list : postings) {
+            PostingsList.Cursor cursor = list.cursor();
+            while (cursor.next()) {
+                checksum += cursor.chunkId() + cursor.termFrequency();
+            }
+        }
+        return checksum;
+    }
+
+    private interface Decoder {
+        long decode();
+    }
+
+    // Best-of time in nanoseconds; the checksum keeps the JIT from dropping the loop
+    private static long measure(Decoder decoder) {
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += decoder.decode();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            checksum += decoder.decode();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (checksum == 42) System.out.println();
+        return best;
+    }
+
+    private static void report(String layout, long bytes, long postingCount, long nanos) {
+        System.out.println(String.format("%-13s %8.2f MB  %5.2f bytes/posting  %7.2f ms/pass  %6.2f ns/posting",
+                layout, bytes / (1024.0 * 1024.0), (double) bytes / postingCount, nanos / 1e6,
+                (double) nanos / postingCount));
+    }
+}
@@ -0,0 +1,174 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Delta/varint encoding of PostingsList: what goes in through the builder comes back out of
+ * the cursor, also after a round trip through the bytes of an index file.
+ */
+public class PostingsListTest {
+
+    @Test
+    public void empty_hasNoPostings() throws IOException {
+        PostingsList empty = PostingsList.EMPTY.toBuilder().build();
+
+        assertTrue(empty.isEmpty());
+        assertEquals(0, empty.encodedLength());
+        assertEquals(-1, empty.lastChunkId());
+        assertFalse(empty.cursor().next());
+
+        PostingsList reloaded = PostingsList.fromEncoded(encode(empty), 0);
+        assertTrue(reloaded.isEmpty());
+        assertFalse(reloaded.cursor().next());
+    }
+
+    @Test
+    public void cursor_returnsPostingsInOrder() {
+        int[] ids = {0, 1, 2, 5, 130};
+        int[] frequencies = {1, 3, 127, 128, 2};
+
+        PostingsList postings = build(ids, frequencies);
+
+        assertEquals(ids.length, postings.size());
+        assertEquals(130, postings.lastChunkId());
+        assertPostings(postings, ids, frequencies);
+    }
+
+    @Test
+    public void largeGapsAndFrequencies_useMultiByteVarints() {
+        int[] ids = {0, 127, 128, 16383, 16384, 1 << 20, 1 << 28, Integer.MAX_VALUE / 2, Integer.MAX_VALUE};
+        int[] frequencies = {1, 127, 128, 16384, 1 << 21, 1, Integer.MAX_VALUE, 2, 1 << 28};
+
+        PostingsList postings = build(ids, frequencies);
+
+        assertPostings(postings, ids, frequencies);
+        assertEquals(Integer.MAX_VALUE, postings.lastChunkId());
+    }
+
+    @Test
+    public void smallGaps_takeTwoBytesPerPosting() {
+        int count = 10000;
+        int[] ids = new int[count];
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 3 * i;
+            frequencies[i] = 1 + i % 100;
+        }
+
+        PostingsList postings = build(ids, frequencies);
+
+        assertEquals(2 * count, postings.encodedLength());
+        assertPostings(postings, ids, frequencies);
+    }
+
+    @Test
+    public void fromEncoded_roundTripsWrittenBytes() throws IOException {
+        Random random = new Random(42);
+        int count = 5000;
+        int[] ids = new int[count];
+        int[] frequencies = new int[count];
+        int id = -1;
+        for (int i = 0; i < count; i++) {
+            // Mostly small gaps with the odd very large one
+            id += 1 + (random.nextInt(20) == 0 ? random.nextInt(1 << 18) : random.nextInt(10));
+            ids[i] = id;
+            frequencies[i] = 1 + random.nextInt(random.nextBoolean() ? 5 : 100000);
+        }
+        PostingsList postings = build(ids, frequencies);
+        byte[] bytes = encode(postings);
+
+        PostingsList heap = PostingsList.fromEncoded(bytes, count);
+        ByteBuffer mapped = ByteBuffer.allocateDirect(bytes.length + 10);
+        mapped.position(7);
+        mapped.put(bytes);
+        PostingsList offHeap = PostingsList.fromEncoded(mapped, 7, bytes.length, count);
+
+        assertEquals(postings.encodedLength(), bytes.length);
+        assertPostings(heap, ids, frequencies);
+        assertPostings(offHeap, ids, frequencies);
+        assertTrue(offHeap.isOffHeap());
+        assertEquals(ids[count - 1], offHeap.lastChunkId());
+        assertArrayEquals(bytes, encode(offHeap));
+    }
+
+    @Test
+    public void reloadedList_acceptsAppends() {
+        PostingsList postings = build(new int[]{4, 1000}, new int[]{2, 1});
+        PostingsList reloaded = PostingsList.fromEncoded(encodeUnchecked(postings), 2);
+
+        PostingsList appended = reloaded.toBuilder().add(1 << 20, 7).build();
+
+        assertPostings(appended, new int[]{4, 1000, 1 << 20}, new int[]{2, 1, 7});
+        assertPostings(reloaded, new int[]{4, 1000}, new int[]{2, 1});
+    }
+
+    @Test
+    public void withPosting_insertsInIdOrder() {
+        PostingsList postings = build(new int[]{10, 300, 70000}, new int[]{1, 2, 3});
+
+        assertPostings(postings.withPosting(0, 9), new int[]{0, 10, 300, 70000}, new int[]{9, 1, 2, 3});
+        assertPostings(postings.withPosting(200, 9), new int[]{10, 200, 300, 70000}, new int[]{1, 9, 2, 3});
+        assertPostings(postings.withPosting(1 << 24, 9), new int[]{10, 300, 70000, 1 << 24}, new int[]{1, 2, 3, 9});
+        assertPostings(PostingsList.EMPTY.withPosting(5, 1), new int[]{5}, new int[]{1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_rejectsIdsOutOfOrder() {
+        PostingsList.EMPTY.toBuilder().add(5, 1).add(5, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromEncoded_rejectsWrongSize() {
+        PostingsList postings = build(new int[]{1, 2, 3}, new int[]{1, 1, 1});
+        PostingsList.fromEncoded(encodeUnchecked(postings), 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void fromEncoded_rejectsTruncatedVarint() {
+        PostingsList.fromEncoded(new byte[]{(byte) 0x85}, 1);
+    }
+
+    private static PostingsList build(int[] ids, int[] frequencies) {
+        PostingsList.Builder builder = PostingsList.EMPTY.toBuilder();
+        for (int i = 0; i < ids.length; i++) {
+            builder.add(ids[i], frequencies[i]);
+        }
+        return builder.build();
+    }
+
+    private static void assertPostings(PostingsList postings, int[] ids, int[] frequencies) {
+        assertEquals(ids.length, postings.size());
+        PostingsList.Cursor cursor = postings.cursor();
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue("missing posting " + i, cursor.next());
+            assertEquals(ids[i], cursor.chunkId());
+            assertEquals(frequencies[i], cursor.termFrequency());
+        }
+        assertFalse(cursor.next());
+    }
+
+    // The bytes an index file stores for the list
+    private static byte[] encode(PostingsList postings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        postings.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeUnchecked(PostingsList postings) {
+        try {
+            return encode(postings);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
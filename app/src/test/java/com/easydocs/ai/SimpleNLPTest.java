@@ -0,0 +1,58 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Positional similarity matches words by stem, so inflected forms and inflected synonyms are
+ * found just like the stemmed keywords the synonym groups are made of. Compact chunk features
+ * score against a query exactly like the full features they were made from.
+ */
+public class SimpleNLPTest {
+
+    @Test
+    public void positionalSimilarity_matchesInflectedSynonyms() {
+        SimpleNLP nlp = new SimpleNLP();
+
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("problems", "issues"), 1e-12);
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("methods", "techniques"), 1e-12);
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("solutions", "answered"), 1e-12);
+    }
+
+    @Test
+    public void positionalSimilarity_matchesInflectedForms() {
+        SimpleNLP nlp = new SimpleNLP();
+
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("documents", "document"), 1e-12);
+        // "documents" is first of two words, "document" second of two: half a text apart
+        assertEquals(0.5, nlp.calculatePositionalSimilarity("documents stored", "stored document"), 1e-12);
+    }
+
+    @Test
+    public void positionalSimilarity_keepsGroupsSharingAWordApart() {
+        SimpleNLP nlp = new SimpleNLP();
+
+        // "approach" is in both groups, which does not make their other members synonyms
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("approaches", "solutions"), 1e-12);
+        assertEquals(1.0, nlp.calculatePositionalSimilarity("approaches", "methods"), 1e-12);
+        assertEquals(0.0, nlp.calculatePositionalSimilarity("methods", "solutions"), 0.0);
+    }
+
+    @Test
+    public void compactFeatures_scoreLikeFullFeatures() {
+        SimpleNLP nlp = new SimpleNLP();
+        SimpleNLP.TextFeatures full = nlp.indexText(
+                "The caching process stores documents because lookups take time. Cached documents are reused.");
+        SimpleNLP.TextFeatures compact = full.compact();
+        QueryPlan plan = new QueryPlan("How are documents cached?", nlp);
+
+        assertTrue(compact.isCompact());
+        assertNull(compact.getLowerText());
+        assertArrayEquals(full.getKeywordIds(), compact.getKeywordIds());
+        assertEquals(full.getTokenCount(), compact.getTokenCount());
+        assertEquals(nlp.calculateSimilarity(plan, full), nlp.calculateSimilarity(plan, compact), 0.0);
+        assertEquals(plan.getSimilarityUpperBound(full), plan.getSimilarityUpperBound(compact), 0.0);
+        assertTrue(nlp.calculateSimilarity(plan, compact) > 0.0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.easydocs.ai;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Host-side benchmark of keyword stemming: the suffix-stripping chain SimpleNLP used before
+ * (copied here), the Porter stemmer working in place on a char buffer, and the Porter stemmer
+ * behind the StemCache that SimpleNLP now uses. Tokens follow Zipf's law over a vocabulary of
+ * inflected word forms, the frequency distribution of words in natural-language text.
+ * Reports tokens/sec and bytes allocated per token.
+ *
+ * Run from the IDE or with: java -cp <test classes>:<main classes> com.easydocs.ai.StemmerBenchmark
+ * Optional args: token count (default 200000), distinct word forms (default 20000).
+ */
+public class StemmerBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 20;
+    private static final String[] SUFFIXES = {
+            "", "", "", "s", "es", "ing", "ed", "er", "ly", "ation", "ations", "ness", "ment",
+            "able", "ible", "ful", "ies", "izer", "ization", "ously", "ive", "iveness", "al", "ally"};
+    private static final String CONSONANTS = "bcdfghklmnprstvw";
+    private static final String VOWELS = "aeiou";
+
+    public static void main(String[] args) {
+        int tokenCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int vocabularySize = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        Random random = new Random(42);
+        String[] vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            vocabulary[i] = randomRoot(random) + SUFFIXES[random.nextInt(SUFFIXES.length)];
+        }
+
+        // Rank r is drawn with probability proportional to 1 / r
+        double[] cumulative = new double[vocabularySize];
+        double total = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+        final String[] tokens = new String[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            tokens[i] = vocabulary[rank >= 0 ? rank : Math.min(-rank - 1, vocabularySize - 1)];
+        }
+
+        System.out.println(tokenCount + " tokens over " + vocabularySize + " word forms");
+        report("legacy suffixes", tokenCount, measure(() -> {
+            long sum = 0;
+            for (String token : tokens) sum += legacyStem(token).length();
+            return sum;
+        }));
+
+        final PorterStemmer stemmer = new PorterStemmer();
+        final char[] buffer = new char[64];
+        report("porter", tokenCount, measure(() -> {
+            long sum = 0;
+            for (String token : tokens) {
+                token.getChars(0, token.length(), buffer, 0);
+                sum += stemmer.stem(buffer, token.length());
+            }
+            return sum;
+        }));
+
+        final StemCache cache = new StemCache(8192);
+        report("porter + cache", tokenCount, measure(() -> {
+            long sum = 0;
+            for (String token : tokens) {
+                int length = token.length();
+                token.getChars(0, length, buffer, 0);
+                String stem = cache.get(buffer, length);
+                if (stem == null) {
+                    stem = new String(buffer, 0, stemmer.stem(buffer, length));
+                    cache.put(token, stem);
+                }
+                sum += stem.length();
+            }
+            return sum;
+        }));
+    }
+
+    private static String randomRoot(Random random) {
+        StringBuilder root = new StringBuilder();
+        int syllables = 1 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            root.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+            root.append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+        }
+        root.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+        return root.toString();
+    }
+
+    // SimpleNLP.applyStemming before the Porter stemmer
+    private static String legacyStem(String word) {
+        if (word.length() <= 3) {
+            return word;
+        }
+
+        if (word.endsWith("ing") && word.length() > 4) {
+            return word.substring(0, word.length() - 3);
+        } else if (word.endsWith("ed") && word.length() > 3) {
+            return word.substring(0, word.length() - 2);
+        } else if (word.endsWith("ly") && word.length() > 3) {
+            return word.substring(0, word.length() - 2);
+        } else if (word.endsWith("tion") && word.length() > 5) {
+            return word.substring(0, word.length() - 4);
+        } else if (word.endsWith("ment") && word.length() > 5) {
+            return word.substring(0, word.length() - 4);
+        } else if (word.endsWith("ness") && word.length() > 5) {
+            return word.substring(0, word.length() - 4);
+        } else if (word.endsWith("able") && word.length() > 5) {
+            return word.substring(0, word.length() - 4);
+        } else if (word.endsWith("ible") && word.length() > 5) {
+            return word.substring(0, word.length() - 4);
+        } else if (word.endsWith("er") && word.length() > 3) {
+            return word.substring(0, word.length() - 2);
+        } else if (word.endsWith("est") && word.length() > 4) {
+            return word.substring(0, word.length() - 3);
+        } else if (word.endsWith("s") && word.length() > 2 && !word.endsWith("ss")) {
+            return word.substring(0, word.length() - 1);
+        }
+
+        return word;
+    }
+
+    private interface Pass {
+        long run();
+    }
+
+    // Best-of time and allocated bytes of one pass; the checksum keeps the JIT from dropping it
+    private static long[] measure(Pass pass) {
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += pass.run();
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += pass.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            bestBytes = Math.min(bestBytes, allocatedBytes() - bytesBefore);
+        }
+        if (checksum == 42) System.out.println();
+        return new long[]{bestNanos, bestBytes};
+    }
+
+    // Bytes allocated by this thread so far, -1 where the JVM can't tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void report(String variant, int tokens, long[] result) {
+        System.out.println(String.format("%-16s %8.2f M tokens/s  %8.1f bytes/token",
+                variant, tokens / (result[0] / 1e9) / 1e6, (double) result[1] / tokens));
+    }
+}
@@ -0,0 +1,108 @@
+package com.easydocs.ai;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * TermDictionary ids stay stable and findable while interning grows the term array and
+ * replaces the hash table.
+ */
+public class TermDictionaryTest {
+
+    @Test
+    public void intern_assignsDenseIdsOnce() {
+        TermDictionary dictionary = new TermDictionary();
+
+        assertEquals(0, dictionary.intern("memory"));
+        assertEquals(1, dictionary.intern("cache"));
+        assertEquals(0, dictionary.intern("memory"));
+        assertEquals(2, dictionary.size());
+        assertEquals("cache", dictionary.term(1));
+    }
+
+    @Test
+    public void lookup_unknownTermIsNotFound() {
+        TermDictionary dictionary = new TermDictionary();
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup("memory"));
+
+        dictionary.intern("memory");
+
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup("memor"));
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup(""));
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup("memory".toCharArray(), 5));
+    }
+
+    @Test
+    public void lookup_findsEveryTermAcrossResizes() {
+        TermDictionary dictionary = new TermDictionary();
+        int count = 10000;
+
+        for (int id = 0; id < count; id++) {
+            assertEquals(id, dictionary.intern(term(id)));
+            // The term just interned and one from before the last resize
+            assertEquals(id, dictionary.lookup(term(id)));
+            assertEquals(id / 2, dictionary.lookup(term(id / 2)));
+        }
+
+        assertEquals(count, dictionary.size());
+        for (int id = 0; id < count; id++) {
+            String term = term(id);
+            char[] chars = (term + "#####").toCharArray();
+            assertEquals(id, dictionary.lookup(term));
+            assertEquals(id, dictionary.lookup(chars, term.length()));
+            assertEquals(term, dictionary.term(id));
+        }
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup(term(count)));
+    }
+
+    @Test
+    public void lookup_collidingHashesResolveToTheirOwnIds() {
+        TermDictionary dictionary = new TermDictionary();
+        // "Aa" and "BB" have the same String.hashCode, as do all concatenations of them
+        String[] colliding = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (String term : colliding) {
+            dictionary.intern(term);
+        }
+        for (int id = 0; id < 300; id++) {
+            dictionary.intern(term(id));
+        }
+
+        for (int id = 0; id < colliding.length; id++) {
+            assertEquals(id, dictionary.lookup(colliding[id]));
+            assertEquals(id, dictionary.lookup(colliding[id].toCharArray(), colliding[id].length()));
+        }
+        assertEquals(TermDictionary.NOT_FOUND, dictionary.lookup("AaAaAa"));
+    }
+
+    @Test
+    public void lookup_concurrentWithInterning() throws InterruptedException {
+        TermDictionary dictionary = new TermDictionary();
+        int count = 20000;
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (dictionary.size() < count && failure.get() == null) {
+                int size = dictionary.size();
+                for (int id = Math.max(0, size - 64); id < size; id++) {
+                    if (dictionary.lookup(term(id)) != id) {
+                        failure.set("lost " + term(id) + " at size " + size);
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int id = 0; id < count; id++) {
+            dictionary.intern(term(id));
+        }
+        reader.join();
+
+        assertNull(failure.get());
+    }
+
+    private static String term(int id) {
+        return "term" + Integer.toString(id, 36);
+    }
+}